@@ -16,9 +16,11 @@ import org.springframework.web.reactive.function.client.ClientRequestObservation
 import org.springframework.web.reactive.function.client.DefaultClientRequestObservationConvention;
 import org.springframework.web.reactive.function.client.WebClient;
 import net.ripe.rpki.rsyncit.config.AppConfig;
+import net.ripe.rpki.rsyncit.replay.Replay;
 import reactor.netty.http.client.HttpClient;
 
 import java.time.Duration;
+import java.util.Arrays;
 import java.util.Properties;
 import java.util.concurrent.TimeUnit;
 
@@ -26,6 +28,11 @@ import java.util.concurrent.TimeUnit;
 public class RsyncitApplication {
 
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("replay")) {
+            // Offline profiling of the fetcher and writer, without the web stack
+            Replay.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         SpringApplication application = new SpringApplication(RsyncitApplication.class);
         Properties properties = new Properties();
         properties.put("spring.codec.max-in-memory-size", "1GB");
@@ -0,0 +1,111 @@
+package net.ripe.rpki.rsyncit.bundle;
+
+import lombok.extern.slf4j.Slf4j;
+import net.ripe.rpki.rsyncit.config.Config;
+import net.ripe.rpki.rsyncit.rrdp.RrdpFetcher;
+import net.ripe.rpki.rsyncit.rrdp.State;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Fetches the {@link PublicationBundle} of a leader, for nodes in FOLLOWER mode.
+ *
+ * The result is the same as that of {@link RrdpFetcher}, so it is written by the same code path. The objects carry the
+ * modification times the leader used, so the follower's tree is identical to the leader's.
+ *
+ * The bundle is parsed while it is downloaded, so that it is never held in memory as a whole next to its objects.
+ */
+@Slf4j
+public class BundleFetcher {
+    private final Config config;
+    private final WebClient httpClient;
+    private final State state;
+
+    // Number of buffers of the response that are requested ahead of the parser
+    private static final int PREFETCH_BUFFERS = 16;
+
+    public BundleFetcher(Config config, WebClient httpClient, State state) {
+        this.config = config;
+        this.httpClient = httpClient;
+        this.state = state;
+    }
+
+    public RrdpFetcher.FetchResult fetchObjects() {
+        try {
+            var rrdpState = state.getRrdpState();
+            var publishedDigest = state.getPublishedDigest();
+            var request = httpClient.get().uri(config.leaderUrl());
+            var conditional = publishedDigest != null && rrdpState != null && rrdpState.getSerial() != null;
+            if (conditional) {
+                request.header(HttpHeaders.IF_NONE_MATCH, "\"" + publishedDigest + "\"");
+            }
+            var deadline = System.nanoTime() + config.requestTimeout().toNanos();
+            var response = request.retrieve().toEntityFlux(DataBuffer.class).block(config.requestTimeout());
+            if (response == null || response.getBody() == null) {
+                return new RrdpFetcher.FailedFetch(new IOException("No response from " + config.leaderUrl()));
+            }
+            if (conditional && response.getStatusCode().value() == HttpStatus.NOT_MODIFIED.value()) {
+                response.getBody().subscribe(DataBufferUtils.releaseConsumer());
+                log.info("Publication bundle of {} has not changed", config.leaderUrl());
+                return new RrdpFetcher.NoUpdates(rrdpState.getSessionId(), rrdpState.getSerial());
+            }
+            RrdpFetcher.SuccessfulFetch publication;
+            // Closing the stream cancels the rest of the download and releases the buffers that were not read
+            try (var body = DataBufferUtils.subscriberInputStream(withDeadline(response.getBody(), deadline), PREFETCH_BUFFERS)) {
+                publication = PublicationBundle.read(body);
+            }
+            if (rrdpState != null &&
+                publication.sessionId().equals(rrdpState.getSessionId()) &&
+                Objects.equals(publication.serial(), rrdpState.getSerial())) {
+                log.info("Not updating: session_id {} and serial {} are the same as previous run.", publication.sessionId(), publication.serial());
+                return new RrdpFetcher.NoUpdates(publication.sessionId(), publication.serial());
+            }
+            log.info("Fetched publication bundle of session_id {} and serial {} with {} objects from {}",
+                publication.sessionId(), publication.serial(), publication.objects().size(), config.leaderUrl());
+            return publication;
+        } catch (WebClientRequestException e) {
+            log.error("Could not fetch the publication bundle from {}", config.leaderUrl(), e);
+            return new RrdpFetcher.Timeout();
+        } catch (IllegalStateException e) {
+            if (e.getMessage() != null && e.getMessage().contains("Timeout")) {
+                log.info("Timeout while loading the publication bundle: url={}", config.leaderUrl());
+                return new RrdpFetcher.Timeout();
+            }
+            return new RrdpFetcher.FailedFetch(e);
+        } catch (IOException | WebClientResponseException e) {
+            return new RrdpFetcher.FailedFetch(e);
+        } catch (Exception e) {
+            if (Exceptions.unwrap(e) instanceof TimeoutException) {
+                log.info("Timeout while loading the publication bundle: url={}", config.leaderUrl());
+                return new RrdpFetcher.Timeout();
+            }
+            // it still may throw something unknown
+            return new RrdpFetcher.FailedFetch(e);
+        }
+    }
+
+    /**
+     * Fail the body with a {@link TimeoutException} if it is not complete at the deadline: the request timeout is for
+     * the whole download, like it was when the response was read in one piece.
+     */
+    private static Flux<DataBuffer> withDeadline(Flux<DataBuffer> body, long deadlineNanos) {
+        return body.timeout(remaining(deadlineNanos), buffer -> remaining(deadlineNanos));
+    }
+
+    private static Mono<Long> remaining(long deadlineNanos) {
+        return Mono.delay(Duration.ofNanos(Math.max(0, deadlineNanos - System.nanoTime())));
+    }
+}
@@ -0,0 +1,114 @@
+package net.ripe.rpki.rsyncit.bundle;
+
+import lombok.extern.slf4j.Slf4j;
+import net.ripe.rpki.rsyncit.rrdp.ObjectPath;
+import net.ripe.rpki.rsyncit.rrdp.ObjectPathTrie;
+import net.ripe.rpki.rsyncit.rrdp.ObjectSetDigest;
+import net.ripe.rpki.rsyncit.rrdp.RpkiObject;
+import net.ripe.rpki.rsyncit.rrdp.RrdpFetcher;
+import net.ripe.rpki.rsyncit.util.Sha256;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Instant;
+import java.util.ArrayList;
+
+/**
+ * Binary format of the objects published by a leader, as read by its followers.
+ *
+ * The bundle contains what the leader wrote: the URL, content and modification time of every object, so a follower
+ * writes a byte-identical tree without parsing XML or CMS. It is a sequence of length-prefixed fields that is written
+ * and read as a stream:
+ *
+ * <pre>
+ *   int magic, int version, UTF session id, int serial, UTF digest, int object count,
+ *   per object: UTF url, long modification time (epoch seconds), int nanos, int length, bytes
+ * </pre>
+ *
+ * The digest is the {@link ObjectSetDigest} of the objects. A follower computes it again over what it read, which
+ * also detects a truncated or corrupted bundle.
+ *
+ * URLs are not trusted more than those in a snapshot: objects with a path outside of their host directory (or a host
+ * that is not a host name) are left out of what is read, they count for the digest because the leader counted them.
+ */
+@Slf4j
+public final class PublicationBundle {
+    static final int MAGIC = 0x52534954; // "RSIT"
+    static final int VERSION = 1;
+
+    private PublicationBundle() {
+    }
+
+    public static void write(RrdpFetcher.SuccessfulFetch publication, OutputStream out) throws IOException {
+        var data = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeUTF(publication.sessionId());
+        data.writeInt(publication.serial());
+        data.writeUTF(publication.digest());
+        data.writeInt(publication.objects().size());
+        for (var object : publication.objects()) {
+            data.writeUTF(object.path().toString());
+            data.writeLong(object.modificationTime().getEpochSecond());
+            data.writeInt(object.modificationTime().getNano());
+            data.writeInt(object.size());
+            data.write(object.bytes());
+        }
+        data.flush();
+    }
+
+    public static RrdpFetcher.SuccessfulFetch read(InputStream in) throws IOException {
+        var data = new DataInputStream(new BufferedInputStream(in, 1 << 16));
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a publication bundle");
+        }
+        var version = data.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported publication bundle version " + version);
+        }
+        var sessionId = data.readUTF();
+        var serial = data.readInt();
+        var expectedDigest = data.readUTF();
+        var count = data.readInt();
+        if (count < 0) {
+            throw new IOException("Invalid object count " + count);
+        }
+
+        var paths = new ObjectPathTrie();
+        var objects = new ArrayList<RpkiObject>(count);
+        var digest = new ObjectSetDigest();
+        for (int i = 0; i < count; i++) {
+            var url = data.readUTF();
+            ObjectPath path;
+            try {
+                path = paths.intern(url);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Invalid URL %s in publication bundle".formatted(url), e);
+            }
+            var modificationTime = Instant.ofEpochSecond(data.readLong(), data.readInt());
+            var length = data.readInt();
+            if (length < 0) {
+                throw new IOException("Invalid length %d of %s".formatted(length, path));
+            }
+            var bytes = data.readNBytes(length);
+            if (bytes.length != length) {
+                throw new IOException("Publication bundle is truncated at " + path);
+            }
+            if (path.escapesHost()) {
+                log.error("The object with url {} in the publication bundle was skipped.", path);
+            } else {
+                objects.add(new RpkiObject(path, bytes, modificationTime));
+            }
+            digest.add(ObjectSetDigest.element(path, Sha256.asString(bytes), modificationTime));
+        }
+        if (!digest.value().equals(expectedDigest)) {
+            throw new IOException("Digest of the objects in the publication bundle is %s, expected %s".formatted(digest.value(), expectedDigest));
+        }
+        return new RrdpFetcher.SuccessfulFetch(objects, sessionId, serial, expectedDigest);
+    }
+}
@@ -3,6 +3,8 @@ package net.ripe.rpki.rsyncit.config;
 import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
 import lombok.Getter;
+import net.ripe.rpki.rsyncit.rsync.WriteDurability;
+import net.ripe.rpki.rsyncit.rsync.WriteMode;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.actuate.info.Info;
 import org.springframework.boot.actuate.info.InfoContributor;
@@ -12,8 +14,11 @@ import org.springframework.stereotype.Component;
 
 import java.nio.file.Path;
 import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Component
 @Getter
@@ -21,7 +26,7 @@ public class AppConfig implements InfoContributor {
 
     private final String rrdpUrl;
     private final String rrdpReplaceHostWith;
-    private final Path rsyncPath;
+    private final List<Path> rsyncPaths;
     private final String cron;
     private final Duration requestTimeout;
     private final ApplicationInfo info;
@@ -29,10 +34,29 @@ public class AppConfig implements InfoContributor {
     private final int targetDirectoryRetentionCopiesCount;
     private final boolean minimalObjectCountCheckEnabled;
     private final int minimalObjectCount;
+    private final int snapshotDownloadConnections;
+    private final long snapshotRangeDownloadMinimumSize;
+    private final boolean writeConcurrencyTuningEnabled;
+    private final WriteDurability writeDurability;
+    private final WriteMode writeMode;
+    private final Duration inPlaceRemovalGracePeriod;
+    private final Duration preemptionCheckInterval;
+    private final int maxConsecutivePreemptions;
+    private final String snapshotCachePath;
+    private final long snapshotCacheMaximumSize;
+    private final SyncMode syncMode;
+    private final String leaderUrl;
+    private final int parseThreads;
+    private final boolean offHeapObjects;
+    private final boolean changeFeedEnabled;
+    private final Duration maximumFreshnessLag;
+    private final String syncTriggerToken;
+    private final int staleNotificationRetries;
 
     public AppConfig(@Value("${rrdpUrl}") String rrdpUrl,
                      @Value("${rrdpReplaceHost:}") String rrdpReplaceHostWith,
-                     @Value("${rsyncPath}") Path rsyncPath,
+                     // one or more (comma separated) roots, the same objects are written to all of them
+                     @Value("${rsyncPath}") String rsyncPath,
                      // Run every 10 minutes
                      @Value("${cron:0 0/10 * * * ?}") String cron,
                      // 3 minutes by default
@@ -43,11 +67,47 @@ public class AppConfig implements InfoContributor {
                      @Value("${targetDirectoryRetentionCopiesCount:8}") int targetDirectoryRetentionCopiesCount,
                      @Value("${minimalObjectCountCheckEnabled:false}") boolean minimalObjectCountCheckEnabled,
                      @Value("${minimalObjectCount:0}") int minimalObjectCount,
+                     // set to > 1 to download snapshots over parallel range requests when the server supports it
+                     @Value("${snapshotDownloadConnections:1}") int snapshotDownloadConnections,
+                     // only split snapshots of at least 16MiB into ranges
+                     @Value("${snapshotRangeDownloadMinimumSize:16777216}") long snapshotRangeDownloadMinimumSize,
+                     // adjust the number of concurrent file writers to the measured throughput of rsyncPath
+                     @Value("${writeConcurrencyTuningEnabled:true}") boolean writeConcurrencyTuningEnabled,
+                     // NONE or GROUP_COMMIT (fsync files, directories and the published symlink before/after the swap)
+                     @Value("${writeDurability:NONE}") WriteDurability writeDurability,
+                     // NEW_DIRECTORY (full copy per sync + symlink swap) or IN_PLACE (apply only the changes)
+                     @Value("${writeMode:NEW_DIRECTORY}") WriteMode writeMode,
+                     // IN_PLACE only: keep removed files for 10 minutes for clients that still have an older manifest
+                     @Value("${inPlaceRemovalGracePeriod:PT10M}") Duration inPlaceRemovalGracePeriod,
+                     // check notification.xml every 30 seconds while a sync runs, PT0S disables the check
+                     @Value("${preemptionCheckInterval:PT30S}") Duration preemptionCheckInterval,
+                     // abandon at most 2 syncs in a row for a newer serial before finishing one regardless
+                     @Value("${maxConsecutivePreemptions:2}") int maxConsecutivePreemptions,
+                     // directory to keep downloaded snapshots in, empty disables the snapshot cache
+                     @Value("${snapshotCachePath:}") String snapshotCachePath,
+                     // keep at most 2GiB of snapshots in the snapshot cache
+                     @Value("${snapshotCacheMaximumSize:2147483648}") long snapshotCacheMaximumSize,
+                     // STANDALONE, LEADER (also serve /publication-bundle) or FOLLOWER (fetch leaderUrl instead of rrdpUrl)
+                     @Value("${syncMode:STANDALONE}") SyncMode syncMode,
+                     // e.g. http://leader:8080/publication-bundle
+                     @Value("${leaderUrl:}") String leaderUrl,
+                     // threads for decoding and parsing objects, 0 for the number of available processors
+                     @Value("${parseThreads:0}") int parseThreads,
+                     // keep the content of objects in native memory between parsing and writing
+                     @Value("${offHeapObjects:false}") boolean offHeapObjects,
+                     // write a <publication>.changes file listing the files added, modified and removed by every sync
+                     @Value("${changeFeedEnabled:false}") boolean changeFeedEnabled,
+                     // report not ready when a serial that appeared upstream is not published within 30 minutes
+                     @Value("${maximumFreshnessLag:PT30M}") Duration maximumFreshnessLag,
+                     // bearer token for POST /sync, empty disables the endpoint
+                     @Value("${syncTriggerToken:}") String syncTriggerToken,
+                     // fetch notification.xml once more (asking caches to revalidate) when its serial went backwards
+                     @Value("${staleNotificationRetries:1}") int staleNotificationRetries,
                      ApplicationInfo info,
                      MeterRegistry registry) {
         this.rrdpUrl = rrdpUrl;
         this.rrdpReplaceHostWith = rrdpReplaceHostWith;
-        this.rsyncPath = rsyncPath;
+        this.rsyncPaths = rsyncPaths(rsyncPath);
         this.cron = cron;
         this.requestTimeout = requestTimeout;
         this.info = info;
@@ -55,14 +115,63 @@ public class AppConfig implements InfoContributor {
         this.targetDirectoryRetentionCopiesCount = targetDirectoryRetentionCopiesCount;
         this.minimalObjectCount = minimalObjectCount;
         this.minimalObjectCountCheckEnabled = minimalObjectCountCheckEnabled;
+        this.snapshotDownloadConnections = snapshotDownloadConnections;
+        this.snapshotRangeDownloadMinimumSize = snapshotRangeDownloadMinimumSize;
+        this.writeConcurrencyTuningEnabled = writeConcurrencyTuningEnabled;
+        this.writeDurability = writeDurability;
+        this.writeMode = writeMode;
+        this.inPlaceRemovalGracePeriod = inPlaceRemovalGracePeriod;
+        this.preemptionCheckInterval = preemptionCheckInterval;
+        this.maxConsecutivePreemptions = maxConsecutivePreemptions;
+        this.snapshotCachePath = snapshotCachePath;
+        this.snapshotCacheMaximumSize = snapshotCacheMaximumSize;
+        this.syncMode = syncMode;
+        this.leaderUrl = leaderUrl;
+        this.parseThreads = parseThreads > 0 ? parseThreads : Runtime.getRuntime().availableProcessors();
+        this.offHeapObjects = offHeapObjects;
+        this.changeFeedEnabled = changeFeedEnabled;
+        this.maximumFreshnessLag = maximumFreshnessLag;
+        this.syncTriggerToken = syncTriggerToken;
+        this.staleNotificationRetries = staleNotificationRetries;
+
+        if (snapshotDownloadConnections < 1) {
+            throw new IllegalArgumentException("snapshotDownloadConnections must be >= 1");
+        }
+        if (preemptionCheckInterval.isNegative() || maxConsecutivePreemptions < 0) {
+            throw new IllegalArgumentException("preemptionCheckInterval and maxConsecutivePreemptions must be >= 0");
+        }
+        if (staleNotificationRetries < 0) {
+            throw new IllegalArgumentException("staleNotificationRetries must be >= 0");
+        }
+        if (syncMode == SyncMode.FOLLOWER && leaderUrl.isBlank()) {
+            throw new IllegalArgumentException("leaderUrl must be set in FOLLOWER mode");
+        }
+        if (syncMode == SyncMode.LEADER && offHeapObjects) {
+            // The leader keeps the objects after the sync to serve them to followers
+            throw new IllegalArgumentException("offHeapObjects can not be used in LEADER mode");
+        }
 
         var builder = Gauge.builder("rsyncit.configuration", () -> 1.0)
                 .baseUnit("info")
                 .tag("rrdp_url", rrdpUrl)
                 .tag("rrdp_override_host", rrdpReplaceHostWith)
+                .tag("rsync_paths", String.valueOf(rsyncPaths.size()))
                 .tag("request_timeout_seconds", String.valueOf(requestTimeout.toSeconds()))
                 .tag("retention_period_minutes", String.valueOf(Duration.ofMillis(targetDirectoryRetentionPeriodMs).toMinutes()))
                 .tag("retention_copies", String.valueOf(targetDirectoryRetentionCopiesCount))
+                .tag("snapshot_download_connections", String.valueOf(snapshotDownloadConnections))
+                .tag("write_concurrency_tuning", String.valueOf(writeConcurrencyTuningEnabled))
+                .tag("write_durability", writeDurability.name())
+                .tag("write_mode", writeMode.name())
+                .tag("preemption_check_interval_seconds", String.valueOf(preemptionCheckInterval.toSeconds()))
+                .tag("snapshot_cache", String.valueOf(!snapshotCachePath.isBlank()))
+                .tag("sync_mode", syncMode.name())
+                .tag("parse_threads", String.valueOf(this.parseThreads))
+                .tag("off_heap_objects", String.valueOf(offHeapObjects))
+                .tag("change_feed", String.valueOf(changeFeedEnabled))
+                .tag("maximum_freshness_lag_seconds", String.valueOf(maximumFreshnessLag.toSeconds()))
+                .tag("sync_trigger", String.valueOf(!syncTriggerToken.isBlank()))
+                .tag("stale_notification_retries", String.valueOf(staleNotificationRetries))
                 .tag("build", info.gitCommitId());
 
         if (minimalObjectCountCheckEnabled) {
@@ -75,10 +184,18 @@ public class AppConfig implements InfoContributor {
         builder.strongReference(true).register(registry);
     }
 
+    /**
+     * @return configuration with the first of the rsync paths, use {@link Config#withRsyncPath} for the others
+     */
     public Config getConfig() {
-        return new Config(rrdpUrl, substitutor(rrdpReplaceHostWith), rsyncPath, cron, requestTimeout,
+        return new Config(rrdpUrl, substitutor(rrdpReplaceHostWith), rsyncPaths.getFirst(), cron, requestTimeout,
                 targetDirectoryRetentionPeriodMs, targetDirectoryRetentionCopiesCount,
-                minimalObjectCount, minimalObjectCountCheckEnabled);
+                minimalObjectCount, minimalObjectCountCheckEnabled,
+                snapshotDownloadConnections, snapshotRangeDownloadMinimumSize,
+                writeConcurrencyTuningEnabled, writeDurability, writeMode, inPlaceRemovalGracePeriod,
+                preemptionCheckInterval, maxConsecutivePreemptions,
+                snapshotCachePath.isBlank() ? null : Path.of(snapshotCachePath), snapshotCacheMaximumSize,
+                syncMode, leaderUrl, offHeapObjects, changeFeedEnabled, staleNotificationRetries);
     }
 
     static Function<String, String> substitutor(String rrdpReplaceHostWith) {
@@ -92,6 +209,26 @@ public class AppConfig implements InfoContributor {
         return rrdpUrl -> rrdpUrl.replaceAll(split[0], split[1]);
     }
 
+    static List<Path> rsyncPaths(String rsyncPath) {
+        var paths = Arrays.stream(rsyncPath.split(","))
+            .map(String::trim)
+            .filter(path -> !path.isEmpty())
+            .map(path -> Path.of(path).toAbsolutePath().normalize())
+            .toList();
+        if (paths.isEmpty()) {
+            throw new IllegalArgumentException("rsyncPath must contain at least one path");
+        }
+        for (int i = 0; i < paths.size(); i++) {
+            for (int j = 0; j < paths.size(); j++) {
+                // Also catches duplicates: the retention cleanup of one root would remove the publications of the other
+                if (i != j && paths.get(j).startsWith(paths.get(i))) {
+                    throw new IllegalArgumentException("rsyncPath contains %s more than once or nested".formatted(paths.get(i)));
+                }
+            }
+        }
+        return paths;
+    }
+
     @Bean
     public static ApplicationInfo appInfo(GitProperties gitProperties) {
         return new ApplicationInfo(gitProperties.getShortCommitId());
@@ -103,7 +240,7 @@ public class AppConfig implements InfoContributor {
                 "cron", cron,
                 "rrdp_url", rrdpUrl,
                 "rrdp_replace_host", rrdpReplaceHostWith,
-                "rsync_path", rsyncPath,
+                "rsync_path", rsyncPaths.stream().map(Path::toString).collect(Collectors.joining(",")),
                 "request_timeout_seconds", String.valueOf(requestTimeout.toSeconds()),
                 "retention_period_minutes", String.valueOf(Duration.ofMillis(targetDirectoryRetentionPeriodMs).toMinutes()),
                 "retention_copies", String.valueOf(targetDirectoryRetentionCopiesCount),
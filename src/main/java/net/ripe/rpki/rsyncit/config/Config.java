@@ -1,6 +1,8 @@
 package net.ripe.rpki.rsyncit.config;
 
 import lombok.With;
+import net.ripe.rpki.rsyncit.rsync.WriteDurability;
+import net.ripe.rpki.rsyncit.rsync.WriteMode;
 
 import java.nio.file.Path;
 import java.time.Duration;
@@ -16,6 +18,24 @@ public record Config(
         long targetDirectoryRetentionPeriodMs,
         int targetDirectoryRetentionCopiesCount,
         int minimalObjectCount,
-        boolean minimalObjectCountCheckEnabled
+        boolean minimalObjectCountCheckEnabled,
+        int snapshotDownloadConnections,
+        long snapshotRangeDownloadMinimumSize,
+        boolean writeConcurrencyTuningEnabled,
+        WriteDurability writeDurability,
+        WriteMode writeMode,
+        Duration inPlaceRemovalGracePeriod,
+        Duration preemptionCheckInterval,
+        int maxConsecutivePreemptions,
+        // null when the snapshot cache is disabled
+        Path snapshotCachePath,
+        long snapshotCacheMaximumSize,
+        SyncMode syncMode,
+        // FOLLOWER only: URL of the publication bundle of the leader
+        String leaderUrl,
+        boolean offHeapObjects,
+        boolean changeFeedEnabled,
+        // times to fetch notification.xml again when it has a lower serial than the previous run
+        int staleNotificationRetries
 ) {
 }
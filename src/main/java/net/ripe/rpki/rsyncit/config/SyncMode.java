@@ -0,0 +1,13 @@
+package net.ripe.rpki.rsyncit.config;
+
+/**
+ * Where a node gets the objects it publishes from.
+ */
+public enum SyncMode {
+    // Fetch and parse the RRDP snapshot
+    STANDALONE,
+    // Like STANDALONE, and also serve what was published as a publication bundle to followers
+    LEADER,
+    // Fetch the publication bundle of a leader
+    FOLLOWER
+}
@@ -0,0 +1,55 @@
+package net.ripe.rpki.rsyncit.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * JFR event for the handling of a single object that took longer than the threshold. Only objects above the
+ * threshold are recorded, so this can stay enabled in a continuous recording even with millions of objects per sync.
+ * The threshold can be changed in the recording settings (`net.ripe.rpki.rsyncit.SlowObject#threshold`).
+ */
+@Name("net.ripe.rpki.rsyncit.SlowObject")
+@Label("Slow Object")
+@Category("rsyncit")
+@Description("Timestamp extraction or write of a single object above the threshold")
+@StackTrace(false)
+@Threshold("10 ms")
+public class SlowObjectEvent extends Event {
+    public static final String TIMESTAMP = "timestamp";
+    public static final String WRITE = "write";
+
+    @Label("Operation")
+    String operation;
+
+    @Label("URI")
+    String uri;
+
+    @Label("Size")
+    @DataAmount
+    int size;
+
+    public static SlowObjectEvent start() {
+        var event = new SlowObjectEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * End the event and commit it if it took longer than the threshold.
+     */
+    public void commitIfSlow(String operation, String uri, int size) {
+        end();
+        if (shouldCommit()) {
+            this.operation = operation;
+            this.uri = uri;
+            this.size = size;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package net.ripe.rpki.rsyncit.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event spanning a complete sync run, from fetching notification.xml until the repository is written (or the
+ * run is given up).
+ */
+@Name("net.ripe.rpki.rsyncit.Sync")
+@Label("Sync")
+@Category("rsyncit")
+@Description("Fetch of notification.xml and snapshot and write of the rsync repository")
+@StackTrace(false)
+public class SyncEvent extends Event {
+    public static final String SUCCESS = "success";
+    public static final String NO_UPDATES = "no_updates";
+    public static final String STALE = "stale";
+    public static final String UNCHANGED = "unchanged";
+    public static final String REJECTED = "rejected";
+    public static final String PREEMPTED = "preempted";
+    public static final String FAILED = "failed";
+    public static final String TIMEOUT = "timeout";
+    public static final String ERROR = "error";
+
+    @Label("Session ID")
+    String sessionId;
+
+    @Label("Serial")
+    long serial;
+
+    @Label("Object Count")
+    int objectCount;
+
+    @Label("Outcome")
+    String outcome;
+
+    public void fetched(String sessionId, Integer serial, int objectCount) {
+        this.sessionId = sessionId;
+        this.serial = serial != null ? serial : -1;
+        this.objectCount = objectCount;
+    }
+
+    public void outcome(String outcome) {
+        this.outcome = outcome;
+    }
+}
@@ -0,0 +1,44 @@
+package net.ripe.rpki.rsyncit.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for one phase of a sync run. Together with the thread and timestamps JFR records anyway, this is what
+ * links GC pauses and I/O stalls in a recording to the stage of the sync they happened in.
+ */
+@Name("net.ripe.rpki.rsyncit.SyncPhase")
+@Label("Sync Phase")
+@Category("rsyncit")
+@Description("Download, parse, write or cleanup phase of a sync")
+@StackTrace(false)
+public class SyncPhaseEvent extends Event {
+    public static final String DOWNLOAD = "download";
+    public static final String PARSE = "parse";
+    public static final String WRITE = "write";
+    public static final String CLEANUP = "cleanup";
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Object Count")
+    int objectCount;
+
+    SyncPhaseEvent(String phase) {
+        this.phase = phase;
+    }
+
+    public static SyncPhaseEvent start(String phase) {
+        var event = new SyncPhaseEvent(phase);
+        event.begin();
+        return event;
+    }
+
+    public void objectCount(int objectCount) {
+        this.objectCount = objectCount;
+    }
+}
@@ -0,0 +1,292 @@
+package net.ripe.rpki.rsyncit.replay;
+
+import ch.qos.logback.classic.Level;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.ripe.rpki.rsyncit.config.Config;
+import net.ripe.rpki.rsyncit.config.SyncMode;
+import net.ripe.rpki.rsyncit.rrdp.RRDPFetcherMetrics;
+import net.ripe.rpki.rsyncit.rrdp.RrdpFetcher;
+import net.ripe.rpki.rsyncit.rrdp.State;
+import net.ripe.rpki.rsyncit.rsync.InPlaceIndex;
+import net.ripe.rpki.rsyncit.rsync.PublicationListing;
+import net.ripe.rpki.rsyncit.rsync.RsyncWriter;
+import net.ripe.rpki.rsyncit.rsync.RsyncWriterMetrics;
+import net.ripe.rpki.rsyncit.rsync.WriteConcurrencyTuner;
+import net.ripe.rpki.rsyncit.rsync.WriteDurability;
+import net.ripe.rpki.rsyncit.rsync.WriteMode;
+import net.ripe.rpki.rsyncit.util.Cancellation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+
+/**
+ * Run the fetcher and the writer on a local notification and snapshot file, without the web stack or the scheduler,
+ * and print the time and heap allocation of every phase. For profiling the pipeline:
+ * <pre>
+ * java -jar rsyncit.jar replay --notification=/tmp/notification.xml --target=/tmp/replay \
+ *     --repeat=3 --write-mode=NEW_DIRECTORY,IN_PLACE --write-concurrency=4,16
+ * </pre>
+ * Every combination of write mode and write concurrency writes into its own directory below the target and runs
+ * `repeat` times. The timestamp cache is kept between the runs of a combination, so the first run is cold and the
+ * others are warm, as in a long running instance.
+ */
+public final class Replay {
+    static final String USAGE = """
+        Usage: replay --notification=<file> --target=<directory> [options]
+          --notification=<file>      notification.xml, a path or a file:// URL
+          --snapshot=<file>          snapshot.xml (default: the snapshot URL of the notification if it is a file:// URL,
+                                     otherwise the file with the same name next to the notification)
+          --target=<directory>       directory to write the rsync repositories in
+          --repeat=<n>               runs per combination of the options below (default 1)
+          --write-mode=<modes>       comma separated NEW_DIRECTORY and/or IN_PLACE (default NEW_DIRECTORY)
+          --write-concurrency=<ns>   comma separated numbers of concurrent file writers (default 2 per processor)
+          --parse-threads=<n>        threads for parsing objects (default 1 per processor)
+          --write-durability=<d>     NONE or GROUP_COMMIT (default NONE)
+          --off-heap                 keep object content off-heap between parsing and writing
+          --verbose                  log at INFO level instead of WARN
+        """;
+
+    private Replay() {
+    }
+
+    public static void main(String[] args) {
+        final Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.print(USAGE);
+            System.exit(2);
+            return;
+        }
+        if (LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME) instanceof ch.qos.logback.classic.Logger root) {
+            root.setLevel(options.verbose() ? Level.INFO : Level.WARN);
+        }
+        try {
+            run(options, System.out);
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @return the result of every run, in order
+     */
+    static List<RunResult> run(Options options, PrintStream out) throws Exception {
+        var notification = Files.readAllBytes(options.notification());
+        var results = new ArrayList<RunResult>();
+        out.printf("%-14s %5s %4s %9s %8s %8s %8s %11s %11s %4s %7s%n", "write mode", "conc", "run", "objects",
+            "read ms", "parse ms", "write ms", "fetch MiB", "write MiB", "gcs", "gc ms");
+
+        try (var parsePool = new ForkJoinPool(options.parseThreads())) {
+            for (var writeMode : options.writeModes()) {
+                for (var concurrency : options.writeConcurrency()) {
+                    var rsyncPath = options.target().resolve(writeMode.name().toLowerCase() + "-" + concurrency);
+                    Files.createDirectories(rsyncPath);
+                    var config = config(options, rsyncPath, writeMode);
+                    // Shared by the runs of this combination: the timestamp cache is warm after the first run
+                    var state = new State();
+                    var inPlaceIndex = new InPlaceIndex();
+                    var publicationListing = new PublicationListing();
+                    for (int run = 1; run <= options.repeat(); run++) {
+                        var result = runOnce(options, config, notification, state, inPlaceIndex, publicationListing,
+                            parsePool, concurrency, run);
+                        results.add(result);
+                        out.printf("%-14s %5d %4d %9d %8d %8d %8d %11.1f %11.1f %4d %7d%n", writeMode, concurrency, run,
+                            result.objectCount(), result.readMillis(), result.parseMillis(), result.writeMillis(),
+                            mebibytes(result.fetchAllocatedBytes()), mebibytes(result.writeAllocatedBytes()),
+                            result.gcCount(), result.gcMillis());
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    private static RunResult runOnce(Options options, Config config, byte[] notification, State state, InPlaceIndex inPlaceIndex,
+                                     PublicationListing publicationListing, ForkJoinPool parsePool, int concurrency, int run) throws Exception {
+        var metrics = new RRDPFetcherMetrics(new SimpleMeterRegistry());
+        var readNanos = new long[1];
+        Function<String, RrdpFetcher.Downloaded> readSnapshot = url -> {
+            var start = System.nanoTime();
+            try {
+                return new RrdpFetcher.Downloaded(Files.readAllBytes(options.snapshotFor(url)), Optional.empty());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                readNanos[0] = System.nanoTime() - start;
+            }
+        };
+
+        var gcBefore = gcTotals();
+        try (var fetcher = new RrdpFetcher(config, null, state, metrics, Cancellation.none(), parsePool)) {
+            var fetchAllocated = allocatedBytes();
+            var fetchStart = System.nanoTime();
+            var fetchResult = fetcher.processNotificationXml(notification, readSnapshot);
+            var fetchNanos = System.nanoTime() - fetchStart;
+            fetchAllocated = allocatedSince(fetchAllocated);
+            if (!(fetchResult instanceof RrdpFetcher.SuccessfulFetch success)) {
+                throw new IllegalStateException("Run %d: fetch did not succeed: %s".formatted(run, fetchResult));
+            }
+
+            var tuner = new WriteConcurrencyTuner(concurrency, concurrency, concurrency, false);
+            try (var ioPool = new ForkJoinPool(concurrency)) {
+                var writer = new RsyncWriter(config, tuner, new RsyncWriterMetrics(new SimpleMeterRegistry()), inPlaceIndex,
+                    publicationListing, ioPool);
+                var writeAllocated = allocatedBytes();
+                var writeStart = System.nanoTime();
+                writer.writeObjects(success.objects(), Instant.now());
+                var writeNanos = System.nanoTime() - writeStart;
+                writeAllocated = allocatedSince(writeAllocated);
+
+                var gcAfter = gcTotals();
+                return new RunResult(run, success.objects().size(), Duration.ofNanos(readNanos[0]).toMillis(),
+                    Duration.ofNanos(fetchNanos - readNanos[0]).toMillis(), Duration.ofNanos(writeNanos).toMillis(),
+                    fetchAllocated, writeAllocated, gcAfter[0] - gcBefore[0], gcAfter[1] - gcBefore[1]);
+            }
+        }
+    }
+
+    private static Config config(Options options, Path rsyncPath, WriteMode writeMode) {
+        return new Config(options.notification().toUri().toString(), Function.identity(), rsyncPath, "",
+            Duration.ofMinutes(3), Duration.ofHours(1).toMillis(), 8, 0, false,
+            1, Long.MAX_VALUE, false, options.writeDurability(), writeMode, Duration.ZERO,
+            Duration.ZERO, 0, null, 0,
+            SyncMode.STANDALONE, "", options.offHeap(), false, 0);
+    }
+
+    /**
+     * @return bytes allocated on the heap by all threads so far, -1 if the JVM does not count them
+     */
+    private static long allocatedBytes() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threadBean
+            && threadBean.isThreadAllocatedMemorySupported() && threadBean.isThreadAllocatedMemoryEnabled()) {
+            return threadBean.getTotalThreadAllocatedBytes();
+        }
+        return -1;
+    }
+
+    private static long allocatedSince(long before) {
+        return before < 0 ? -1 : allocatedBytes() - before;
+    }
+
+    /**
+     * @return number of collections and milliseconds spent in them, over all collectors
+     */
+    private static long[] gcTotals() {
+        long count = 0;
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return new long[]{count, millis};
+    }
+
+    private static double mebibytes(long bytes) {
+        return bytes < 0 ? Double.NaN : bytes / (1024.0 * 1024.0);
+    }
+
+    record RunResult(int run, int objectCount, long readMillis, long parseMillis, long writeMillis,
+                     long fetchAllocatedBytes, long writeAllocatedBytes, long gcCount, long gcMillis) {
+    }
+
+    record Options(Path notification, Path snapshot, Path target, int repeat, List<WriteMode> writeModes,
+                   List<Integer> writeConcurrency, int parseThreads, WriteDurability writeDurability,
+                   boolean offHeap, boolean verbose) {
+
+        static Options parse(String[] args) {
+            Path notification = null;
+            Path snapshot = null;
+            Path target = null;
+            var repeat = 1;
+            var writeModes = List.of(WriteMode.NEW_DIRECTORY);
+            var processors = Runtime.getRuntime().availableProcessors();
+            var writeConcurrency = List.of(2 * processors);
+            var parseThreads = processors;
+            var writeDurability = WriteDurability.NONE;
+            var offHeap = false;
+            var verbose = false;
+
+            for (var arg : args) {
+                var separator = arg.indexOf('=');
+                var name = separator < 0 ? arg : arg.substring(0, separator);
+                var value = separator < 0 ? null : arg.substring(separator + 1);
+                try {
+                    switch (name) {
+                        case "--notification" -> notification = path(required(name, value));
+                        case "--snapshot" -> snapshot = path(required(name, value));
+                        case "--target" -> target = Path.of(required(name, value));
+                        case "--repeat" -> repeat = positive(name, Integer.parseInt(required(name, value)));
+                        case "--write-mode" -> writeModes = Arrays.stream(required(name, value).split(","))
+                            .map(mode -> WriteMode.valueOf(mode.trim())).toList();
+                        case "--write-concurrency" -> writeConcurrency = Arrays.stream(required(name, value).split(","))
+                            .map(n -> positive(name, Integer.parseInt(n.trim()))).toList();
+                        case "--parse-threads" -> parseThreads = positive(name, Integer.parseInt(required(name, value)));
+                        case "--write-durability" -> writeDurability = WriteDurability.valueOf(required(name, value));
+                        case "--off-heap" -> offHeap = true;
+                        case "--verbose" -> verbose = true;
+                        default -> throw new IllegalArgumentException("Unknown option " + arg);
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid value for " + name + ": " + value);
+                }
+            }
+            if (notification == null || target == null) {
+                throw new IllegalArgumentException("--notification and --target are required");
+            }
+            return new Options(notification, snapshot, target, repeat, writeModes, writeConcurrency, parseThreads,
+                writeDurability, offHeap, verbose);
+        }
+
+        /**
+         * @param snapshotUrl snapshot URL from notification.xml
+         */
+        Path snapshotFor(String snapshotUrl) {
+            if (snapshot != null) {
+                return snapshot;
+            }
+            var uri = URI.create(snapshotUrl);
+            if ("file".equals(uri.getScheme())) {
+                return Path.of(uri);
+            }
+            var name = Path.of(uri.getPath()).getFileName();
+            return notification.resolveSibling(name.toString());
+        }
+
+        private static Path path(String value) {
+            return value.startsWith("file:") ? Path.of(URI.create(value)) : Path.of(value);
+        }
+
+        private static String required(String name, String value) {
+            if (value == null || value.isBlank()) {
+                throw new IllegalArgumentException(name + " needs a value");
+            }
+            return value;
+        }
+
+        private static int positive(String name, int value) {
+            if (value < 1) {
+                throw new IllegalArgumentException(name + " must be >= 1");
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package net.ripe.rpki.rsyncit.rrdp;
+
+import com.google.common.hash.BloomFilter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Logging of objects that can not be decoded or parsed, bounded so that a snapshot with thousands of bad objects does
+ * not turn the sync into a logging exercise.
+ *
+ * <ul>
+ *     <li>Every sync logs one summary line with the number of bad objects per {@link Failure}.</li>
+ *     <li>Details (URL, exception, content) are logged for at most {@link #DETAILS_PER_RUN} objects per failure per
+ *     sync, and only for objects that were not logged before: the filter of logged objects lives as long as the
+ *     process, not as long as a fetch.</li>
+ *     <li>Details are formatted and written by a background thread with a bounded queue, when it is full details are
+ *     dropped (and counted) instead of slowing down parsing.</li>
+ * </ul>
+ */
+@Slf4j
+public class BadObjectLog {
+    public enum Failure {
+        DECODE, NO_TIMESTAMP, DUPLICATE_URL;
+
+        String tag() {
+            return name().toLowerCase();
+        }
+    }
+
+    static final int DETAILS_PER_RUN = 10;
+    static final int QUEUE_SIZE = 100;
+    // Content of bad objects is cut off after this many characters
+    static final int MAXIMUM_CONTENT_LENGTH = 1024;
+    // The filter is replaced when it holds this many objects, before the false positive rate goes up
+    static final int FILTER_CAPACITY = 100_000;
+
+    private static final ThreadPoolExecutor DETAIL_LOGGER = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(QUEUE_SIZE), Thread.ofPlatform().name("rsyncit-bad-object-log").daemon().factory(),
+        new ThreadPoolExecutor.AbortPolicy());
+
+    private final AtomicReference<BloomFilter<String>> logged = new AtomicReference<>(newFilter());
+
+    private static BloomFilter<String> newFilter() {
+        return BloomFilter.create((from, into) -> into.putString(from, StandardCharsets.UTF_8), FILTER_CAPACITY, 0.005);
+    }
+
+    public Run newRun() {
+        return new Run();
+    }
+
+    /**
+     * Bad objects of one sync.
+     */
+    public final class Run {
+        private final Map<Failure, LongAdder> counts = new EnumMap<>(Failure.class);
+        private final Map<Failure, AtomicInteger> details = new EnumMap<>(Failure.class);
+        private final LongAdder loggedBefore = new LongAdder();
+        private final LongAdder dropped = new LongAdder();
+
+        private Run() {
+            for (var failure : Failure.values()) {
+                counts.put(failure, new LongAdder());
+                details.put(failure, new AtomicInteger());
+            }
+        }
+
+        public void count(Failure failure) {
+            counts.get(failure).increment();
+        }
+
+        public long total(Failure failure) {
+            return counts.get(failure).sum();
+        }
+
+        /**
+         * Log the details of a bad object, unless it was logged before or enough objects with this failure were
+         * logged in this run already.
+         *
+         * @param key     identifies the object for deduplication, e.g. the hash of its content
+         * @param message formatted on the logging thread
+         * @return true if the details are going to be logged
+         */
+        public boolean detail(Failure failure, String key, Supplier<String> message, Exception exception) {
+            var filter = logged.get();
+            if (filter.mightContain(key)) {
+                loggedBefore.increment();
+                return false;
+            }
+            if (details.get(failure).incrementAndGet() > DETAILS_PER_RUN) {
+                return false;
+            }
+            filter.put(key);
+            if (filter.approximateElementCount() > FILTER_CAPACITY) {
+                logged.compareAndSet(filter, newFilter());
+            }
+            try {
+                DETAIL_LOGGER.execute(() -> log.error("Bad object ({}): {}", failure.tag(), message.get(), exception));
+                return true;
+            } catch (RejectedExecutionException e) {
+                dropped.increment();
+                return false;
+            }
+        }
+
+        /**
+         * Log one line with the number of bad objects per failure.
+         */
+        public void logSummary(String context) {
+            var total = counts.values().stream().mapToLong(LongAdder::sum).sum();
+            var perFailure = counts.entrySet().stream()
+                .map(e -> e.getKey().tag() + "=" + e.getValue().sum())
+                .collect(Collectors.joining(" "));
+            var detailsLogged = details.values().stream().mapToInt(d -> Math.min(d.get(), DETAILS_PER_RUN)).sum() - dropped.sum();
+            if (total == 0) {
+                log.info("Bad objects in {}: {}", context, perFailure);
+            } else {
+                log.warn("Bad objects in {}: {} details_logged={} logged_before={} details_dropped={}",
+                    context, perFailure, detailsLogged, loggedBefore.sum(), dropped.sum());
+            }
+        }
+    }
+
+    static String truncate(String content) {
+        return content.length() <= MAXIMUM_CONTENT_LENGTH
+            ? content
+            : content.substring(0, MAXIMUM_CONTENT_LENGTH) + "... (%d characters)".formatted(content.length());
+    }
+}
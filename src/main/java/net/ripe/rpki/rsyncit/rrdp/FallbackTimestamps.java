@@ -0,0 +1,52 @@
+package net.ripe.rpki.rsyncit.rrdp;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Modification time for objects that do not contain a timestamp that can be parsed (unknown object types, broken
+ * objects).
+ *
+ * The time has to be the same on every instance that publishes the same snapshot, otherwise rsync clients that move
+ * between instances transfer these objects again. So it is taken from the repository itself: the timestamp of the
+ * manifest in the same directory. The manifest is re-issued when anything in its directory changes, so a changed
+ * object also gets a new modification time. Only for an object without a manifest next to it the Last-Modified time
+ * of the snapshot is used or, if there is none, the current hour.
+ */
+@Slf4j
+class FallbackTimestamps {
+    // Directories are interned nodes of the same trie, so identity is equality.
+    private final Map<ObjectPath, Instant> manifestTimes = new IdentityHashMap<>();
+    private final Instant lastResort;
+    private boolean lastResortUsed;
+
+    FallbackTimestamps(List<RrdpFetcher.ParsedObject> parsedObjects, Optional<Instant> lastModified) {
+        for (var parsed : parsedObjects) {
+            var object = parsed.object();
+            if (object.modificationTime() != null && object.path().name().endsWith(".mft")) {
+                // Should be one per directory, take the latest one if not.
+                manifestTimes.merge(object.path().parent(), object.modificationTime(),
+                    (a, b) -> a.isAfter(b) ? a : b);
+            }
+        }
+        this.lastResort = lastModified.orElseGet(() -> Instant.now().truncatedTo(ChronoUnit.HOURS));
+    }
+
+    Instant get(ObjectPath path) {
+        var manifestTime = path.parent() != null ? manifestTimes.get(path.parent()) : null;
+        if (manifestTime != null) {
+            return manifestTime;
+        }
+        if (!lastResortUsed) {
+            lastResortUsed = true;
+            log.info("No manifest next to {}: using {} as timestamp for objects without a manifest", path, lastResort);
+        }
+        return lastResort;
+    }
+}
@@ -0,0 +1,70 @@
+package net.ripe.rpki.rsyncit.rrdp;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Content of an object: a byte array on the heap, or a slice of a slab in an {@link ObjectContentArena}.
+ */
+public sealed interface ObjectContent permits ObjectContent.Heap, ObjectContent.OffHeap {
+    int size();
+
+    /**
+     * @return the content as a byte array: the array itself for heap content, a copy for off-heap content
+     */
+    byte[] toByteArray();
+
+    /**
+     * Write the content to `path`, creating or truncating the file.
+     */
+    void writeTo(Path path) throws IOException;
+
+    record Heap(byte[] bytes) implements ObjectContent {
+        @Override
+        public int size() {
+            return bytes.length;
+        }
+
+        @Override
+        public byte[] toByteArray() {
+            return bytes;
+        }
+
+        @Override
+        public void writeTo(Path path) throws IOException {
+            Files.write(path, bytes);
+        }
+    }
+
+    /**
+     * Slice of a slab. Only the offset and size are per object, the slab is shared. Accessing the content after its
+     * arena is closed throws {@link IllegalStateException}.
+     */
+    record OffHeap(MemorySegment slab, long offset, int size) implements ObjectContent {
+        @Override
+        public byte[] toByteArray() {
+            var bytes = new byte[size];
+            MemorySegment.copy(slab, ValueLayout.JAVA_BYTE, offset, bytes, 0, size);
+            return bytes;
+        }
+
+        @Override
+        public void writeTo(Path path) throws IOException {
+            // Write straight from the native memory, without a copy on the heap
+            var buffer = slab.asSlice(offset, size).asByteBuffer();
+            try (var channel = FileChannel.open(path, CREATE, TRUNCATE_EXISTING, WRITE)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        }
+    }
+}
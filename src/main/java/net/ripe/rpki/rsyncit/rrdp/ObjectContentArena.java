@@ -0,0 +1,64 @@
+package net.ripe.rpki.rsyncit.rrdp;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+/**
+ * Off-heap storage for the content of the objects of one sync.
+ *
+ * A snapshot has millions of objects of a few KiB that live from parsing until they are written. On the heap that is
+ * millions of arrays that are promoted to the old generation, and the heap has to be sized for the largest snapshot.
+ * With an arena the content is copied into large native slabs (the objects only hold an offset and size) and all of
+ * it is freed at once when the arena is closed after the write.
+ *
+ * Safe to use from multiple threads: only the bump allocation is synchronized, copies run concurrently.
+ */
+public final class ObjectContentArena implements AutoCloseable {
+    static final long SLAB_SIZE = 64L * 1024 * 1024;
+    // Objects larger than this get a segment of their own instead of wasting the rest of a slab
+    static final long LARGE_OBJECT_SIZE = SLAB_SIZE / 16;
+
+    private final Arena arena = Arena.ofShared();
+    private MemorySegment slab;
+    private long position;
+    private long allocatedBytes;
+
+    public ObjectContent store(byte[] bytes) {
+        final MemorySegment target;
+        final long offset;
+        synchronized (this) {
+            if (bytes.length > LARGE_OBJECT_SIZE) {
+                target = arena.allocate(bytes.length);
+                offset = 0;
+                allocatedBytes += bytes.length;
+            } else {
+                if (slab == null || position + bytes.length > slab.byteSize()) {
+                    slab = arena.allocate(SLAB_SIZE);
+                    position = 0;
+                    allocatedBytes += SLAB_SIZE;
+                }
+                target = slab;
+                offset = position;
+                position += bytes.length;
+            }
+        }
+        MemorySegment.copy(bytes, 0, target, ValueLayout.JAVA_BYTE, offset, bytes.length);
+        return new ObjectContent.OffHeap(target, offset, bytes.length);
+    }
+
+    /**
+     * @return native memory allocated by this arena
+     */
+    public synchronized long allocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * Free all content at once. Objects stored in this arena can not be used afterwards.
+     */
+    @Override
+    public void close() {
+        arena.close();
+    }
+}
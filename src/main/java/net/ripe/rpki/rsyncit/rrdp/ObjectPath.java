@@ -0,0 +1,108 @@
+package net.ripe.rpki.rsyncit.rrdp;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Host and path of an object, as a node in an {@link ObjectPathTrie}.
+ *
+ * A repository has millions of objects under a few hosts and a few thousand CA directories. Every node only holds its
+ * own segment and a reference to its parent, so all objects in a directory share the prefix instead of every object
+ * carrying a complete {@link URI} (with its own copies of scheme, host, path and the full string).
+ *
+ * Paths are normalised while interning (`.`, `..` and empty segments), so nodes of the same trie are equal if and
+ * only if they are the same instance. A path that would leave the host directory through `..`, or that has a host
+ * that is not a plain host name, is not interned: it is kept as a detached node with {@link #escapesHost()} set, so
+ * that it can be reported and skipped by the writer.
+ */
+public final class ObjectPath {
+    private final ObjectPath parent;
+    private final String name;
+    private final boolean escapesHost;
+    private volatile Map<String, ObjectPath> children;
+    private volatile int leafIndex = -1;
+
+    ObjectPath(ObjectPath parent, String name, boolean escapesHost) {
+        this.parent = parent;
+        this.name = name;
+        this.escapesHost = escapesHost;
+    }
+
+    public String host() {
+        var node = this;
+        while (node.parent != null) {
+            node = node.parent;
+        }
+        return node.name;
+    }
+
+    /**
+     * @return path relative to the host, without a leading slash
+     */
+    public String relativePath() {
+        if (parent == null) {
+            return "";
+        }
+        if (escapesHost || parent.parent == null) {
+            return name;
+        }
+        return parent.relativePath() + "/" + name;
+    }
+
+    public ObjectPath parent() {
+        return parent;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /**
+     * @return true if the (normalised) path is not below its host, e.g. `rsync://host/a/../../b`
+     */
+    public boolean escapesHost() {
+        return escapesHost;
+    }
+
+    /**
+     * @return dense index of this object path in its trie, or -1 if it was never interned as an object
+     */
+    public int leafIndex() {
+        return leafIndex;
+    }
+
+    public URI toUri() {
+        return URI.create(toString());
+    }
+
+    @Override
+    public String toString() {
+        return "rsync://" + host() + "/" + relativePath();
+    }
+
+    ObjectPath child(String segment) {
+        var map = children;
+        if (map == null) {
+            synchronized (this) {
+                if (children == null) {
+                    children = new ConcurrentHashMap<>(4);
+                }
+                map = children;
+            }
+        }
+        var existing = map.get(segment);
+        return existing != null ? existing : map.computeIfAbsent(segment, s -> new ObjectPath(this, s, false));
+    }
+
+    void markLeaf(AtomicInteger leafCounter) {
+        if (leafIndex < 0) {
+            synchronized (this) {
+                if (leafIndex < 0) {
+                    leafIndex = leafCounter.getAndIncrement();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package net.ripe.rpki.rsyncit.rrdp;
+
+import java.net.URI;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Prefix trie of object paths (host, directories, file name) for the objects of one snapshot.
+ *
+ * Every interned object gets a dense leaf index, so per-object bookkeeping such as detecting duplicate URLs can use
+ * an array instead of hashing full URIs. Safe to use from multiple threads. A trie is meant to live as long as the
+ * objects of one sync: it does not forget paths.
+ */
+public final class ObjectPathTrie {
+    private final ConcurrentHashMap<String, ObjectPath> hosts = new ConcurrentHashMap<>();
+    private final AtomicInteger leafCount = new AtomicInteger();
+
+    /**
+     * Intern the host and path of an absolute URI (`scheme://host/path`). The scheme is not kept: the rsync tree
+     * only depends on the host and the path.
+     *
+     * The host becomes a directory name, so a host that is not a plain host name (`..`, `host:873`, `user@host`) is not
+     * interned but returned with {@link ObjectPath#escapesHost()} set, like a path that leaves the host directory.
+     *
+     * @throws IllegalArgumentException if the URI has no scheme or host
+     */
+    public ObjectPath intern(String uri) {
+        var schemeEnd = uri.indexOf("://");
+        if (schemeEnd <= 0) {
+            throw new IllegalArgumentException("Not an absolute URI: " + uri);
+        }
+        var hostStart = schemeEnd + 3;
+        var pathStart = uri.indexOf('/', hostStart);
+        var host = pathStart == -1 ? uri.substring(hostStart) : uri.substring(hostStart, pathStart);
+        if (host.isEmpty()) {
+            throw new IllegalArgumentException("No host in URI: " + uri);
+        }
+        var path = pathStart == -1 ? "" : uri.substring(pathStart + 1);
+        if (!isHostName(host)) {
+            return new ObjectPath(new ObjectPath(null, host, false), path, true);
+        }
+        if (path.indexOf('%') >= 0 || path.indexOf('?') >= 0 || path.indexOf('#') >= 0) {
+            // Rare: let java.net.URI do the decoding, so that the file names stay what they were with URIs.
+            path = URI.create(uri).getPath();
+        }
+
+        var hostNode = hosts.computeIfAbsent(host, h -> new ObjectPath(null, h, false));
+        var node = hostNode;
+        var start = 0;
+        while (start < path.length()) {
+            var end = path.indexOf('/', start);
+            if (end == -1) {
+                end = path.length();
+            }
+            var segment = path.substring(start, end);
+            if (segment.equals("..")) {
+                if (node == hostNode) {
+                    return new ObjectPath(hostNode, path, true);
+                }
+                node = node.parent();
+            } else if (!segment.isEmpty() && !segment.equals(".")) {
+                node = node.child(segment);
+            }
+            start = end + 1;
+        }
+        if (node == hostNode) {
+            // There is no file name to write the object to
+            return new ObjectPath(hostNode, path, true);
+        }
+        node.markLeaf(leafCount);
+        return node;
+    }
+
+    /**
+     * @return true if the host can be used as a directory name: letters, digits, `-`, `_` and `.`, but not `.` or `..`
+     * (so no port, user info, IPv6 literal, separators or escapes)
+     */
+    static boolean isHostName(String host) {
+        if (host.equals(".") || host.equals("..")) {
+            return false;
+        }
+        for (int i = 0; i < host.length(); i++) {
+            var c = host.charAt(i);
+            var allowed = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '-' || c == '_' || c == '.';
+            if (!allowed) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return number of distinct object paths interned so far, an upper bound for {@link ObjectPath#leafIndex()}
+     */
+    public int leafCount() {
+        return leafCount.get();
+    }
+}
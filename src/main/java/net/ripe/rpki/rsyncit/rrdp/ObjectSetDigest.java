@@ -0,0 +1,49 @@
+package net.ripe.rpki.rsyncit.rrdp;
+
+import com.google.common.hash.Hashing;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+/**
+ * Order-independent digest of a set of (URL, content hash, modification time) tuples: the digest of a set is the sum
+ * (modulo 2^64, per half) of a 128-bit hash of every element, so it can be built in any order and the same set always
+ * has the same digest. A sum does not cancel out duplicates the way XOR would.
+ *
+ * Used to detect that a new serial (or a session reset) publishes exactly the same objects as what is already
+ * written, in which case there is nothing to write.
+ */
+public final class ObjectSetDigest {
+    private long high;
+    private long low;
+    private int count;
+
+    public record Element(long high, long low) {
+    }
+
+    public static Element element(ObjectPath path, String contentHash, Instant modificationTime) {
+        var hash = Hashing.sha256().newHasher()
+            .putString(path.toString(), StandardCharsets.UTF_8)
+            .putByte((byte) 0)
+            .putString(contentHash, StandardCharsets.US_ASCII)
+            .putByte((byte) 0)
+            .putLong(modificationTime.toEpochMilli())
+            .hash();
+        var buffer = ByteBuffer.wrap(hash.asBytes());
+        return new Element(buffer.getLong(), buffer.getLong());
+    }
+
+    public void add(Element element) {
+        high += element.high();
+        low += element.low();
+        count++;
+    }
+
+    /**
+     * @return hex representation of the digest, including the number of elements
+     */
+    public String value() {
+        return "%016x%016x-%d".formatted(high, low, count);
+    }
+}
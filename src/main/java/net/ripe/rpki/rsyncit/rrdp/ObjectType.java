@@ -0,0 +1,25 @@
+package net.ripe.rpki.rsyncit.rrdp;
+
+import java.util.Locale;
+
+/**
+ * Type of an RPKI object, derived from its file name extension.
+ */
+public enum ObjectType {
+    CER, MFT, CRL, ROA, ASA, GBR, OTHER;
+
+    private final String extension = "." + name().toLowerCase(Locale.ROOT);
+
+    public static ObjectType of(String fileName) {
+        for (var type : values()) {
+            if (type != OTHER && fileName.regionMatches(true, fileName.length() - type.extension.length(), type.extension, 0, type.extension.length())) {
+                return type;
+            }
+        }
+        return OTHER;
+    }
+
+    public String tag() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -1,11 +1,15 @@
 package net.ripe.rpki.rsyncit.rrdp;
 
 import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
 import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Timer;
 
+import java.util.EnumMap;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public final class RRDPFetcherMetrics {
     private final AtomicInteger rrdpSerial = new AtomicInteger();
@@ -13,8 +17,20 @@ public final class RRDPFetcherMetrics {
     private final Counter failedUpdates;
     private final Counter timeoutUpdates;
     private final Counter rejectedUpdates;
+    private final Counter unchangedUpdates;
+    private final Counter preemptedUpdates;
+    private final Counter staleUpdates;
     private final Counter objectFailures;
     private final Counter tooSlow;
+    private final Counter snapshotCacheHits;
+    private final Counter snapshotCacheMisses;
+
+    private final Map<ObjectType, AtomicLong> snapshotObjects = new EnumMap<>(ObjectType.class);
+    private final Map<ObjectType, AtomicLong> snapshotBytes = new EnumMap<>(ObjectType.class);
+    private final Map<ObjectType, DistributionSummary> objectSizes = new EnumMap<>(ObjectType.class);
+    private final AtomicLong timestampCacheHitRatio = new AtomicLong(Double.doubleToLongBits(Double.NaN));
+    private final AtomicLong timestampFallbacks = new AtomicLong();
+    private final AtomicLong offHeapBytes = new AtomicLong();
 
     public final Timer objectConstructionTimer;
 
@@ -23,7 +39,12 @@ public final class RRDPFetcherMetrics {
         failedUpdates = buildCounter("failed", meterRegistry);
         timeoutUpdates = buildCounter("timeout", meterRegistry);
         rejectedUpdates = buildCounter("rejected", meterRegistry);
+        unchangedUpdates = buildCounter("unchanged", meterRegistry);
+        preemptedUpdates = buildCounter("preempted", meterRegistry);
+        staleUpdates = buildCounter("stale", meterRegistry);
         tooSlow = buildCounter("slow", meterRegistry);
+        snapshotCacheHits = buildSnapshotCacheCounter("hit", meterRegistry);
+        snapshotCacheMisses = buildSnapshotCacheCounter("miss", meterRegistry);
 
         objectFailures = Counter.builder("rsyncit.fetcher.objects")
                 .description("Metrics on objects")
@@ -37,6 +58,39 @@ public final class RRDPFetcherMetrics {
         objectConstructionTimer = Timer.builder("rsyncit.fetcher.parsing")
                 .description("Time spent parsing objects for the last run")
                 .register(meterRegistry);
+
+        for (var type : ObjectType.values()) {
+            var objects = new AtomicLong();
+            var bytes = new AtomicLong();
+            snapshotObjects.put(type, objects);
+            snapshotBytes.put(type, bytes);
+            Gauge.builder("rsyncit.fetcher.snapshot.objects", objects::get)
+                    .description("Number of objects in the last snapshot")
+                    .tag("type", type.tag())
+                    .register(meterRegistry);
+            Gauge.builder("rsyncit.fetcher.snapshot.bytes", bytes::get)
+                    .description("Size of the objects in the last snapshot")
+                    .baseUnit("bytes")
+                    .tag("type", type.tag())
+                    .register(meterRegistry);
+            objectSizes.put(type, DistributionSummary.builder("rsyncit.fetcher.object.size")
+                    .description("Size of the objects in the fetched snapshots")
+                    .baseUnit("bytes")
+                    .tag("type", type.tag())
+                    .serviceLevelObjectives(512, 1024, 2048, 4096, 8192, 16384, 65536, 262144, 1048576)
+                    .register(meterRegistry));
+        }
+
+        Gauge.builder("rsyncit.fetcher.timestamp.cache.hit.ratio", () -> Double.longBitsToDouble(timestampCacheHitRatio.get()))
+                .description("Fraction of the objects in the last snapshot whose timestamp came from the timestamp cache")
+                .register(meterRegistry);
+        Gauge.builder("rsyncit.fetcher.offheap", offHeapBytes::get)
+                .description("Native memory allocated for the object content of the last snapshot (offHeapObjects only)")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("rsyncit.fetcher.timestamp.fallback", timestampFallbacks::get)
+                .description("Objects in the last snapshot without a parseable timestamp, that use the timestamp of the manifest next to them")
+                .register(meterRegistry);
     }
 
     public void success(int serial) {
@@ -60,10 +114,51 @@ public final class RRDPFetcherMetrics {
         this.objectFailures.increment();
     }
 
+    public void unchanged(int serial) {
+        this.unchangedUpdates.increment();
+        this.rrdpSerial.set(serial);
+    }
+
+    public void preempted() {
+        this.preemptedUpdates.increment();
+    }
+
+    public void staleNotification() {
+        this.staleUpdates.increment();
+    }
+
+    public void snapshotCache(boolean hit) {
+        (hit ? this.snapshotCacheHits : this.snapshotCacheMisses).increment();
+    }
+
+    public void objectSize(ObjectType type, int size) {
+        this.objectSizes.get(type).record(size);
+    }
+
+    public void offHeapBytes(long bytes) {
+        this.offHeapBytes.set(bytes);
+    }
+
+    public void snapshot(SnapshotStatistics statistics) {
+        for (var type : ObjectType.values()) {
+            this.snapshotObjects.get(type).set(statistics.count(type));
+            this.snapshotBytes.get(type).set(statistics.bytes(type));
+        }
+        this.timestampCacheHitRatio.set(Double.doubleToLongBits(statistics.timestampCacheHitRatio()));
+        this.timestampFallbacks.set(statistics.timestampFallbacks());
+    }
+
     public void rejectAsTooSmall() {
         this.rejectedUpdates.increment();
     }
 
+    private static Counter buildSnapshotCacheCounter(String resultTag, MeterRegistry registry) {
+        return Counter.builder("rsyncit.fetcher.snapshot.cache")
+                .description("Snapshots that were read from (hit) or not found in (miss) the snapshot cache")
+                .tag("result", resultTag)
+                .register(registry);
+    }
+
     private static Counter buildCounter(String statusTag, MeterRegistry registry) {
         return Counter.builder("rsyncit.fetcher.updated")
                 .description("Number of fetches")
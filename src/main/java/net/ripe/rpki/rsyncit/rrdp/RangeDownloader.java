@@ -0,0 +1,153 @@
+package net.ripe.rpki.rsyncit.rrdp;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Download a large file as a number of parallel byte ranges.
+ *
+ * A single HTTP connection is limited by the throughput of one TCP stream, which on high-latency links is a lot
+ * lower than the available bandwidth. When the server advertises `Accept-Ranges: bytes` the file is split into
+ * ranges that are fetched concurrently into a preallocated buffer. Failed ranges are retried on their own, the
+ * ranges that were already received are kept. A range that is answered with anything but 206 is not retried: the file
+ * changed since the HEAD request, or the server does not honour ranges after all.
+ *
+ * The content is not verified here: the caller checks the SHA-256 of the combined content against the hash from
+ * notification.xml, exactly as for a single-stream download.
+ */
+@Slf4j
+class RangeDownloader {
+    static final int MAX_RANGE_RETRIES = 3;
+
+    private final WebClient httpClient;
+    private final int connections;
+    private final long minimumSize;
+
+    RangeDownloader(WebClient httpClient, int connections, long minimumSize) {
+        this.httpClient = httpClient;
+        this.connections = connections;
+        this.minimumSize = minimumSize;
+    }
+
+    /**
+     * @return downloaded content, or empty if the server does not support ranges or the file is too small to bother
+     * @throws RuntimeException if a range could not be downloaded, the caller can fall back to a single-stream download
+     */
+    Optional<RrdpFetcher.Downloaded> download(String uri, Duration timeout) {
+        final ResponseEntity<Void> head;
+        try {
+            head = httpClient.head().uri(uri).retrieve().toBodilessEntity().block(timeout);
+        } catch (RuntimeException e) {
+            // Not all servers (or CDNs) are happy with HEAD requests, use the plain GET path instead.
+            log.info("HEAD request for {} failed, not using range requests: {}", uri, e.getMessage());
+            return Optional.empty();
+        }
+        if (head == null) {
+            return Optional.empty();
+        }
+
+        var headers = head.getHeaders();
+        var length = headers.getContentLength();
+        if (!headers.getOrEmpty(HttpHeaders.ACCEPT_RANGES).contains("bytes") || length < minimumSize) {
+            return Optional.empty();
+        }
+        if (length > Integer.MAX_VALUE - 8) {
+            log.warn("Content length {} of {} does not fit in a single buffer, not using range requests", length, uri);
+            return Optional.empty();
+        }
+
+        // Use the validator of the HEAD response so that all ranges come from the same version of the file. If the
+        // file changes in between, the server returns the full new content (200) instead of 206 and the range fails.
+        var validator = ifRangeValidator(headers);
+        final long modified = headers.getLastModified();
+        var lastModified = modified != -1 ? Optional.of(Instant.ofEpochMilli(modified)) : Optional.<Instant>empty();
+
+        var content = new byte[(int) length];
+        var ranges = ranges(length, connections);
+        log.info("Downloading {} ({} bytes) in {} ranges", uri, length, ranges.size());
+
+        Flux.fromIterable(ranges)
+            .flatMap(range -> fetchRange(uri, range, validator, content), connections)
+            .then()
+            .block(timeout);
+
+        return Optional.of(new RrdpFetcher.Downloaded(content, lastModified));
+    }
+
+    private Mono<Void> fetchRange(String uri, Range range, Optional<String> validator, byte[] target) {
+        return Mono.defer(() -> {
+                var request = httpClient.get().uri(uri)
+                    .header(HttpHeaders.RANGE, "bytes=%d-%d".formatted(range.first(), range.last()));
+                validator.ifPresent(v -> request.header(HttpHeaders.IF_RANGE, v));
+                return request.retrieve().toEntity(byte[].class);
+            })
+            .flatMap(response -> {
+                var body = response.getBody();
+                if (response.getStatusCode().value() != HttpStatus.PARTIAL_CONTENT.value()) {
+                    return Mono.error(new RangeNotHonouredException(
+                        "Expected 206 for range %s of %s, got %s".formatted(range, uri, response.getStatusCode())));
+                }
+                if (body == null || body.length != range.length()) {
+                    return Mono.error(new FetcherException(new IOException(
+                        "Range %s of %s returned %d bytes".formatted(range, uri, body == null ? 0 : body.length))));
+                }
+                System.arraycopy(body, 0, target, (int) range.first(), body.length);
+                return Mono.<Void>empty();
+            })
+            .retryWhen(Retry.backoff(MAX_RANGE_RETRIES, Duration.ofMillis(250))
+                .filter(e -> !(e instanceof RangeNotHonouredException))
+                .doBeforeRetry(signal -> log.warn("Retrying range {} of {} after: {}", range, uri, signal.failure().getMessage())));
+    }
+
+    /**
+     * If-Range only allows a strong validator: a server must ignore the range for a weak ETag (`W/"..."`) and send the
+     * whole file with every range request. Fall back to Last-Modified, or to no validator at all.
+     */
+    static Optional<String> ifRangeValidator(HttpHeaders headers) {
+        return Optional.ofNullable(headers.getETag())
+            .filter(etag -> !etag.startsWith("W/"))
+            .or(() -> Optional.ofNullable(headers.getFirst(HttpHeaders.LAST_MODIFIED)));
+    }
+
+    /**
+     * Split [0, length) into at most `count` contiguous inclusive ranges of (almost) equal size.
+     */
+    static List<Range> ranges(long length, int count) {
+        var result = new ArrayList<Range>();
+        var size = Math.ceilDiv(length, count);
+        for (long first = 0; first < length; first += size) {
+            result.add(new Range(first, Math.min(first + size, length) - 1));
+        }
+        return result;
+    }
+
+    static class RangeNotHonouredException extends FetcherException {
+        RangeNotHonouredException(String message) {
+            super(new IOException(message));
+        }
+    }
+
+    record Range(long first, long last) {
+        long length() {
+            return last - first + 1;
+        }
+
+        @Override
+        public String toString() {
+            return "%d-%d".formatted(first, last);
+        }
+    }
+}
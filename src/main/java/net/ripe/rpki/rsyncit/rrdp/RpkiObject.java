@@ -3,6 +3,31 @@ package net.ripe.rpki.rsyncit.rrdp;
 import java.net.URI;
 import java.time.Instant;
 
-public record RpkiObject(URI url, byte[] bytes, Instant modificationTime) {
-}
+public record RpkiObject(ObjectPath path, ObjectContent content, Instant modificationTime) {
+    public RpkiObject(ObjectPath path, byte[] bytes, Instant modificationTime) {
+        this(path, new ObjectContent.Heap(bytes), modificationTime);
+    }
+
+    /**
+     * Object with a path in a trie of its own. Convenient for tests and single objects, objects of a snapshot should
+     * share one {@link ObjectPathTrie}.
+     */
+    public RpkiObject(URI url, byte[] bytes, Instant modificationTime) {
+        this(new ObjectPathTrie().intern(url.toString()), bytes, modificationTime);
+    }
+
+    public URI url() {
+        return path.toUri();
+    }
 
+    /**
+     * @see ObjectContent#toByteArray()
+     */
+    public byte[] bytes() {
+        return content.toByteArray();
+    }
+
+    public int size() {
+        return content.size();
+    }
+}
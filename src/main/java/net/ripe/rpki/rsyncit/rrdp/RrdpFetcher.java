@@ -1,15 +1,19 @@
 package net.ripe.rpki.rsyncit.rrdp;
 
-import com.google.common.hash.BloomFilter;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import net.ripe.rpki.commons.crypto.cms.RpkiSignedObjectParser;
 import net.ripe.rpki.commons.crypto.util.SignedObjectUtil;
 import net.ripe.rpki.commons.validation.ValidationResult;
 import net.ripe.rpki.rsyncit.config.Config;
+import net.ripe.rpki.rsyncit.jfr.SlowObjectEvent;
+import net.ripe.rpki.rsyncit.jfr.SyncPhaseEvent;
+import net.ripe.rpki.rsyncit.util.Cancellation;
 import net.ripe.rpki.rsyncit.util.Sha256;
+import net.ripe.rpki.rsyncit.util.SyncCancelledException;
 import net.ripe.rpki.rsyncit.util.Time;
 import net.ripe.rpki.rsyncit.util.XML;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpRequest;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.reactive.function.client.WebClientRequestException;
@@ -20,7 +24,6 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
-import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpressionException;
@@ -29,15 +32,16 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.net.URI;
-import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.Instant;
-import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -45,35 +49,60 @@ import java.util.stream.IntStream;
 
 @Slf4j
 @Getter
-public class RrdpFetcher {
+public class RrdpFetcher implements AutoCloseable {
 
     private final Config config;
     private final WebClient httpClient;
     private final State state;
     private final RRDPFetcherMetrics metrics;
+    private final Cancellation cancellation;
+    private final Optional<SnapshotCache> snapshotCache;
+    // Pool for decoding and parsing the objects
+    private final ForkJoinPool cpuPool;
 
     /**
-     * Bloom filter with 0.5% false positives (and no false negatives) at 100K objects to reduce logging.
-     *
-     * Expected number of rejected objects is ~100k worst case, which would leave ~50 false positives that are logged
-     * for each iteration.
-     *
-     * On a realistic number of rejected objects (~9k) this would leave < 10 false positives per update.
+     * Off-heap storage of the object content of this fetch when `offHeapObjects` is enabled. Freed on {@link #close()},
+     * after the objects are written.
+     */
+    private volatile ObjectContentArena contentArena;
+
+    /**
+     * Notification file this fetch is working on, null until it has been fetched.
      */
-    private final BloomFilter<String> loggedObjects = BloomFilter.create((from, into) -> into.putString(from, Charset.defaultCharset()), 100_000, 0.05);
+    private volatile NotificationXml notification;
 
 
     public RrdpFetcher(Config config, WebClient httpClient, State state, RRDPFetcherMetrics metrics) {
+        this(config, httpClient, state, metrics, Cancellation.none(), ForkJoinPool.commonPool());
+    }
+
+    public RrdpFetcher(Config config, WebClient httpClient, State state, RRDPFetcherMetrics metrics, Cancellation cancellation,
+                       ForkJoinPool cpuPool) {
         this.config = config;
         this.httpClient = httpClient;
         this.state = state;
         this.metrics = metrics;
+        this.cancellation = cancellation;
+        this.cpuPool = cpuPool;
+        this.snapshotCache = Optional.ofNullable(config.snapshotCachePath())
+            .map(path -> new SnapshotCache(path, config.snapshotCacheMaximumSize()));
         log.info("RrdpFetcher for {}", config.rrdpUrl());
     }
 
     private Downloaded download(String uri, Duration timeout) {
+        return download(uri, timeout, false);
+    }
+
+    /**
+     * @param revalidate ask caches (e.g. a CDN edge) to revalidate their copy with the origin
+     */
+    private Downloaded download(String uri, Duration timeout, boolean revalidate) {
         var lastModified = new AtomicReference<Optional<Instant>>(Optional.empty());
-        var body = httpClient.get().uri(uri).retrieve()
+        var request = httpClient.get().uri(uri);
+        if (revalidate) {
+            request.header(HttpHeaders.CACHE_CONTROL, "no-cache");
+        }
+        var body = request.retrieve()
             .toEntity(byte[].class)
             .doOnSuccess(e -> {
                 final long modified = e.getHeaders().getLastModified();
@@ -97,8 +126,17 @@ public class RrdpFetcher {
 
     public FetchResult fetchObjectsEx() {
         try {
-            final byte[] notificationBytes = download(config.rrdpUrl(), config.requestTimeout()).content();
-            return processNotificationXml(notificationBytes, this::loadSnapshot);
+            var notification = parseNotification(download(config.rrdpUrl(), config.requestTimeout()).content());
+            // A lagging CDN edge can return an older notification.xml, another request may reach an up-to-date one.
+            for (int retry = 1; retry <= config.staleNotificationRetries() && isStale(notification); retry++) {
+                log.info("notification.xml has serial {}, older than published serial {}: fetching it again (retry {})",
+                    notification.serial(), state.getPublishedSerial().serial(), retry);
+                notification = parseNotification(download(config.rrdpUrl(), config.requestTimeout(), true).content());
+            }
+            return processNotification(notification, this::loadSnapshot);
+        } catch (SyncCancelledException e) {
+            log.info("Abandoned fetch of {}: {}", config.rrdpUrl(), e.getMessage());
+            return new Cancelled(e.getMessage());
         } catch (NotificationStructureException |
                  SnapshotStructureException |
                  ParserConfigurationException |
@@ -131,24 +169,72 @@ public class RrdpFetcher {
         }
     }
 
-    FetchResult processNotificationXml(byte[] notificationBytes, Function<String, Downloaded> getSnapshot) throws NotificationStructureException, SAXException,
-        IOException, XPathExpressionException, SnapshotStructureException, ParserConfigurationException {
+    /**
+     * Fetch and validate only notification.xml, without changing any state. Used to check for a newer serial while a
+     * sync is running.
+     */
+    public NotificationXml fetchNotification() throws NotificationStructureException, SAXException, IOException, ParserConfigurationException {
+        return parseNotification(download(config.rrdpUrl(), config.requestTimeout()).content());
+    }
+
+    static NotificationXml parseNotification(byte[] notificationBytes) throws NotificationStructureException, SAXException,
+        IOException, ParserConfigurationException {
         if (notificationBytes == null || notificationBytes.length == 0) {
             throw new NotificationStructureException("Empty notification file.");
         }
-        final DocumentBuilder documentBuilder = XML.newDocumentBuilder();
-        final Document notificationXmlDoc = documentBuilder.parse(new ByteArrayInputStream(notificationBytes));
+        final Document notificationXmlDoc = XML.newDocumentBuilder().parse(new ByteArrayInputStream(notificationBytes));
+        return validateNotificationStructure(notificationXmlDoc);
+    }
 
-        var notification = validateNotificationStructure(notificationXmlDoc);
+    /**
+     * Process a notification file that was already fetched, loading the snapshot with `getSnapshot` (which gets the
+     * snapshot URL after host substitution). Used by the fetcher itself and for replaying local files.
+     */
+    public FetchResult processNotificationXml(byte[] notificationBytes, Function<String, Downloaded> getSnapshot) throws NotificationStructureException, SAXException,
+        IOException, XPathExpressionException, SnapshotStructureException, ParserConfigurationException {
+        return processNotification(parseNotification(notificationBytes), getSnapshot);
+    }
+
+    /**
+     * @return true if the notification has a lower serial in the same session as the published one: it comes from a
+     * server (or CDN edge) that is behind. Writing it would take the repository back in time. Compared with what is
+     * published rather than with the RRDP state, which has no serial after a failed fetch.
+     */
+    boolean isStale(NotificationXml notification) {
+        var published = state.getPublishedSerial();
+        return published != null &&
+            notification.sessionId().equals(published.sessionId()) &&
+            notification.serial() < published.serial();
+    }
+
+    private FetchResult processNotification(NotificationXml notification, Function<String, Downloaded> getSnapshot) throws SAXException,
+        IOException, XPathExpressionException, SnapshotStructureException, ParserConfigurationException {
+        if (isStale(notification)) {
+            var published = state.getPublishedSerial();
+            log.warn("Not updating: serial {} of session_id {} is older than published serial {}.",
+                notification.serial(), notification.sessionId(), published.serial());
+            metrics.staleNotification();
+            return new NoUpdates(published.sessionId(), published.serial(), true);
+        }
         if (state.getRrdpState() != null &&
             notification.sessionId().equals(state.getRrdpState().getSessionId()) &&
             Objects.equals(notification.serial(), state.getRrdpState().getSerial())) {
             log.info("Not updating: session_id {} and serial {} are the same as previous run.", notification.sessionId(), notification.serial());
             return new NoUpdates(notification.sessionId(), notification.serial());
         }
+        this.notification = notification;
         var actualSnapshotUrl = config.substituteHost().apply(notification.snapshotUrl());
-        var downloaded = Time.timed(() -> getSnapshot.apply(actualSnapshotUrl));
-        log.info("Downloaded snapshot in {}ms", downloaded.getTime());
+        var downloadEvent = SyncPhaseEvent.start(SyncPhaseEvent.DOWNLOAD);
+        var cached = snapshotCache.flatMap(cache -> cache.get(notification.expectedSnapshotHash()));
+        snapshotCache.ifPresent(cache -> metrics.snapshotCache(cached.isPresent()));
+        var downloaded = Time.timed(() -> cached.orElseGet(() -> getSnapshot.apply(actualSnapshotUrl)));
+        downloadEvent.commit();
+        if (cached.isPresent()) {
+            log.info("Read snapshot {} from the snapshot cache in {}ms", notification.snapshotUrl(), downloaded.getTime());
+        } else {
+            log.info("Downloaded snapshot in {}ms", downloaded.getTime());
+        }
+        cancellation.throwIfCancelled();
 
         var snapshotContent = downloaded.getResult().content();
         if (snapshotContent == null || snapshotContent.length == 0) {
@@ -159,12 +245,20 @@ public class RrdpFetcher {
             throw new SnapshotStructureException(notification.snapshotUrl(),
                 "with len(content) = %d had sha256(content) = %s, expected %s".formatted(snapshotContent.length, realSnapshotHash, notification.expectedSnapshotHash()));
         }
-        var document = documentBuilder.parse(new ByteArrayInputStream(snapshotContent)).getDocumentElement();
+        if (cached.isEmpty()) {
+            snapshotCache.ifPresent(cache -> cache.put(realSnapshotHash, downloaded.getResult()));
+        }
+        var parseEvent = SyncPhaseEvent.start(SyncPhaseEvent.PARSE);
+        var document = XML.newDocumentBuilder().parse(new ByteArrayInputStream(snapshotContent)).getDocumentElement();
 
         validateSnapshotStructure(notification.serial(), notification.snapshotUrl(), document);
-        var processPublishElementResult = processPublishElements(document, downloaded.getResult().lastModified());
+        var processPublishElementResult = processPublishElements(document, notification.serial(), downloaded.getResult().lastModified());
+        parseEvent.objectCount(processPublishElementResult.objects().size());
+        parseEvent.commit();
+        cancellation.throwIfCancelled();
 
-        return new SuccessfulFetch(processPublishElementResult.objects, notification.sessionId(), notification.serial());
+        return new SuccessfulFetch(processPublishElementResult.objects, notification.sessionId(), notification.serial(),
+            processPublishElementResult.digest());
     }
 
     private static NotificationXml validateNotificationStructure(Document notification) throws NotificationStructureException {
@@ -186,6 +280,17 @@ public class RrdpFetcher {
 
     private Downloaded loadSnapshot(String snapshotUrl) {
         log.info("Loading RRDP snapshot from {}", snapshotUrl);
+        if (config.snapshotDownloadConnections() > 1) {
+            var rangeDownloader = new RangeDownloader(httpClient, config.snapshotDownloadConnections(), config.snapshotRangeDownloadMinimumSize());
+            try {
+                var downloaded = rangeDownloader.download(snapshotUrl, config.requestTimeout());
+                if (downloaded.isPresent()) {
+                    return downloaded.get();
+                }
+            } catch (RuntimeException e) {
+                log.warn("Range download of {} failed, downloading it as a single stream: {}", snapshotUrl, e.getMessage());
+            }
+        }
         return download(snapshotUrl, config.requestTimeout());
     }
 
@@ -207,36 +312,38 @@ public class RrdpFetcher {
         }
     }
 
-    private ProcessPublishElementResult processPublishElements(Element doc, Optional<Instant> lastModified) throws XPathExpressionException {
+    private ProcessPublishElementResult processPublishElements(Element doc, int serial, Optional<Instant> lastModified) throws XPathExpressionException {
+        var badObjects = state.getBadObjects().newRun();
+        try {
+            return processPublishElements(doc, lastModified, badObjects);
+        } finally {
+            badObjects.logSummary("snapshot serial " + serial);
+        }
+    }
+
+    private ProcessPublishElementResult processPublishElements(Element doc, Optional<Instant> lastModified,
+                                                               BadObjectLog.Run badObjects) throws XPathExpressionException {
         var queryPublish = XPathFactory.newDefaultInstance().newXPath().compile("/snapshot/publish");
         final NodeList publishedObjects = (NodeList) queryPublish.evaluate(doc, XPathConstants.NODESET);
 
-        // Generate timestamp that will be tracked per object and used as FS modification timestamp
-        // if no value can be parsed from the object itself.
-        //
-        // Use last-modified header from the snapshot if available, otherwise truncate current time
-        // to the closest hour -- it is unlikely that different instances will have clocks off by a lot,
-        // so rounding down to an hour should generate the same timestamps _most of the time_.
-        //
-        if (lastModified.isEmpty()) {
-            log.info("No last-modified header in response: Using current hour as timestamp");
-        }
-        var defaultTimestamp = lastModified.orElse(Instant.now().truncatedTo(ChronoUnit.HOURS));
-
         // This timestamp is only needed for marking objects in the timestamp cache.
         var now = Instant.now();
 
-        var collisionCount = new AtomicInteger();
         var decoder = Base64.getDecoder();
+        var paths = new ObjectPathTrie();
+        final ObjectContentArena arena = config.offHeapObjects() ? newContentArena() : null;
+        var statistics = new SnapshotStatistics();
+        cancellation.throwIfCancelled();
 
         var objectItems = IntStream
             .range(0, publishedObjects.getLength())
             .mapToObj(publishedObjects::item)
             .toList();
 
-        var objects = metrics.objectConstructionTimer.record(() -> objectItems
+        var parsedObjects = metrics.objectConstructionTimer.record(() -> cpuPool.submit(() -> objectItems
             .parallelStream()
             .map(item -> {
+                cancellation.throwIfCancelled();
                 var objectUri = item.getAttributes().getNamedItem("uri").getNodeValue();
                 var content = item.getTextContent();
                 try {
@@ -250,75 +357,162 @@ public class RrdpFetcher {
                     //
                     // We can not use hashes in sub-second precision because rsync may start syncing those by default.
                     // @see https://github.com/WayneD/rsync/commit/839dbff2aaf0277471e1986a3cd0f869e0bdda24
-                    final Instant modificationTime = state.cacheTimestamps(Sha256.asString(decoded), now,
-                        () -> getTimestampForObject(objectUri, decoded, defaultTimestamp));
-
-                    return new RpkiObject(URI.create(objectUri), decoded, modificationTime);
+                    final String contentHash = Sha256.asString(decoded);
+                    statistics.timestampLookup();
+                    // null if the object does not contain a timestamp, resolved below
+                    final Instant modificationTime = state.cacheTimestamps(contentHash, now, () -> {
+                        statistics.timestampCacheMiss();
+                        return getTimestampForObject(objectUri, decoded, contentHash, badObjects);
+                    });
+
+                    var path = paths.intern(objectUri);
+                    var objectContent = arena != null ? arena.store(decoded) : new ObjectContent.Heap(decoded);
+                    return new ParsedObject(new RpkiObject(path, objectContent, modificationTime), contentHash,
+                        modificationTime != null ? ObjectSetDigest.element(path, contentHash, modificationTime) : null);
                 } catch (RuntimeException e) {
                     metrics.badObject();
-                    log.error("Cannot decode object data for URI {}\n{}", objectUri, content);
+                    badObjects.count(BadObjectLog.Failure.DECODE);
+                    badObjects.detail(BadObjectLog.Failure.DECODE, Sha256.asString(content.getBytes(StandardCharsets.US_ASCII)),
+                        () -> "cannot decode object data for URI %s%n%s".formatted(objectUri, BadObjectLog.truncate(content)), e);
                     throw e;
                 }
             })
-            // group by url to detect duplicate urls: keeps the first element, will cause a diff between
-            // the sources being monitored.
-            .collect(Collectors.groupingBy(RpkiObject::url))
-            // invariant: every group has at least 1 item
-            .entrySet().stream()
-            .map(item -> {
-                if (item.getValue().size() > 1) {
-                    var collect = item.getValue().
-                        stream().
-                        map(coll -> Sha256.asString(coll.bytes())).
-                        collect(Collectors.joining(", "));
-                    log.warn("Multiple objects for {}, keeping first element: {}", item.getKey(), collect);
-                    collisionCount.addAndGet(item.getValue().size() - 1);
-                    return item.getValue().get(0);
-                }
-                return item.getValue().get(0);
-            })
-            .collect(Collectors.toList()));
+            .toList()).join());
+
+        // Detect duplicate urls: keeps the first element (in document order), will cause a diff between
+        // the sources being monitored. Interned paths have a dense index, so this does not need to hash URLs.
+        var fallbackTimestamps = new FallbackTimestamps(parsedObjects, lastModified);
+        var firstByPath = new RpkiObject[paths.leafCount()];
+        var duplicates = new LinkedHashMap<ObjectPath, List<RpkiObject>>();
+        var objects = new ArrayList<RpkiObject>(parsedObjects.size());
+        var digest = new ObjectSetDigest();
+        for (var parsed : parsedObjects) {
+            var object = parsed.object();
+            var digestElement = parsed.digestElement();
+            if (object.modificationTime() == null) {
+                statistics.timestampFallback();
+                badObjects.count(BadObjectLog.Failure.NO_TIMESTAMP);
+                var modificationTime = fallbackTimestamps.get(object.path());
+                object = new RpkiObject(object.path(), object.content(), modificationTime);
+                digestElement = ObjectSetDigest.element(object.path(), parsed.contentHash(), modificationTime);
+            }
+            var index = object.path().leafIndex();
+            if (index < 0) {
+                // Not interned (escapes its host directory), the writer reports and skips these.
+                objects.add(object);
+                digest.add(digestElement);
+            } else if (firstByPath[index] == null) {
+                firstByPath[index] = object;
+                objects.add(object);
+                digest.add(digestElement);
+                var type = ObjectType.of(object.path().name());
+                statistics.add(type, object.size());
+                metrics.objectSize(type, object.size());
+            } else {
+                duplicates.computeIfAbsent(object.path(), p -> new ArrayList<>(List.of(firstByPath[index]))).add(object);
+            }
+        }
+        var collisionCount = 0;
+        for (var duplicate : duplicates.entrySet()) {
+            var collect = duplicate.getValue().
+                stream().
+                map(coll -> Sha256.asString(coll.bytes())).
+                collect(Collectors.joining(", "));
+            for (int i = 1; i < duplicate.getValue().size(); i++) {
+                badObjects.count(BadObjectLog.Failure.DUPLICATE_URL);
+            }
+            badObjects.detail(BadObjectLog.Failure.DUPLICATE_URL, duplicate.getKey() + " " + collect,
+                () -> "multiple objects for %s, keeping first element: %s".formatted(duplicate.getKey(), collect), null);
+            collisionCount += duplicate.getValue().size() - 1;
+        }
 
-        log.info("Parsed {} objects", objects.size());
-        return new ProcessPublishElementResult(objects, collisionCount.get());
+        metrics.snapshot(statistics);
+        if (arena != null) {
+            metrics.offHeapBytes(arena.allocatedBytes());
+        }
+        log.info("Parsed {} objects: {}", objects.size(), statistics);
+        return new ProcessPublishElementResult(objects, collisionCount, digest.value());
+    }
+
+    private synchronized ObjectContentArena newContentArena() {
+        if (contentArena != null) {
+            contentArena.close();
+        }
+        contentArena = new ObjectContentArena();
+        return contentArena;
     }
 
     /**
-     * Try to get some creation timestamp from the object itself. If it's impossible to parse
-     * the object, use the default (based on the last-modified header of the snapshot).
+     * Free the off-heap content of the fetched objects, if any. The objects can not be used afterwards.
+     */
+    @Override
+    public synchronized void close() {
+        if (contentArena != null) {
+            contentArena.close();
+            contentArena = null;
+        }
+    }
+
+    /**
+     * Try to get some creation timestamp from the object itself.
      *
      * @param objectUri uri of object
      * @param decoded content of object
-     * @param lastModified modification time to use as fallback
-     * @return
+     * @param contentHash SHA-256 of the content
+     * @param badObjects where to report the object if it can not be parsed
+     * @return the timestamp, or null if it's impossible to parse the object (see {@link FallbackTimestamps})
      */
-    private Instant getTimestampForObject(final String objectUri, final byte[] decoded, Instant lastModified) {
+    private Instant getTimestampForObject(final String objectUri, final byte[] decoded, final String contentHash,
+                                          final BadObjectLog.Run badObjects) {
+        var slowObjectEvent = SlowObjectEvent.start();
         try {
             return Instant.ofEpochMilli(SignedObjectUtil.getFileCreationTime(URI.create(objectUri), decoded).getMillis());
         } catch (SignedObjectUtil.NoTimeParsedException e) {
             metrics.badObject();
-            var contentHash = Sha256.asString(decoded);
-            if (!loggedObjects.mightContain(contentHash)) {
-                log.error("Could not parse the object url = {}, body = {} :", objectUri, Base64.getEncoder().encodeToString(decoded), e);
-                loggedObjects.put(contentHash);
-            }
-            return lastModified;
+            // Encoding the body is left to the logging thread, and skipped altogether for objects that are not logged
+            badObjects.detail(BadObjectLog.Failure.NO_TIMESTAMP, contentHash, () -> "could not parse the object url = %s, body = %s"
+                .formatted(objectUri, BadObjectLog.truncate(Base64.getEncoder().encodeToString(decoded))), e);
+            return null;
+        } finally {
+            slowObjectEvent.commitIfSlow(SlowObjectEvent.TIMESTAMP, objectUri, decoded.length);
         }
     }
 
-    record NotificationXml(String sessionId, Integer serial, String snapshotUrl, String expectedSnapshotHash) {
+    public record NotificationXml(String sessionId, Integer serial, String snapshotUrl, String expectedSnapshotHash) {
+        /**
+         * @return true if this notification is for a later state of the repository than `other`: a higher serial in
+         * the same session, or a different session (after a session reset serials start over).
+         */
+        public boolean supersedes(NotificationXml other) {
+            return !sessionId.equals(other.sessionId) || serial > other.serial;
+        }
     }
 
-    record ProcessPublishElementResult(List<RpkiObject> objects, int collisionCount) {
+    record ProcessPublishElementResult(List<RpkiObject> objects, int collisionCount, String digest) {
+    }
+
+    /**
+     * @param digestElement null if the modification time of the object still has to be resolved
+     */
+    record ParsedObject(RpkiObject object, String contentHash, ObjectSetDigest.Element digestElement) {
     }
 
-    public sealed interface FetchResult permits SuccessfulFetch, NoUpdates, FailedFetch, Timeout {
+    public sealed interface FetchResult permits SuccessfulFetch, NoUpdates, FailedFetch, Timeout, Cancelled {
     }
 
-    public record SuccessfulFetch(List<RpkiObject> objects, String sessionId, Integer serial) implements FetchResult {
+    /**
+     * @param digest {@link ObjectSetDigest} of the objects
+     */
+    public record SuccessfulFetch(List<RpkiObject> objects, String sessionId, Integer serial, String digest) implements FetchResult {
     }
 
-    public record NoUpdates(String sessionId, Integer serial) implements FetchResult {
+    /**
+     * @param stale the notification was older than what is published, see {@link #isStale}
+     */
+    public record NoUpdates(String sessionId, Integer serial, boolean stale) implements FetchResult {
+        public NoUpdates(String sessionId, Integer serial) {
+            this(sessionId, serial, false);
+        }
     }
 
     public record FailedFetch(Exception exception) implements FetchResult {
@@ -327,6 +521,12 @@ public class RrdpFetcher {
     public record Timeout() implements FetchResult {
     }
 
+    /**
+     * The fetch was abandoned, e.g. because a newer serial appeared while it was running.
+     */
+    public record Cancelled(String reason) implements FetchResult {
+    }
+
     public record Downloaded(byte[] content, Optional<Instant> lastModified) {
     }
 }
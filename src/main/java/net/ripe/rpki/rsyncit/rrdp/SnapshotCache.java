@@ -0,0 +1,131 @@
+package net.ripe.rpki.rsyncit.rrdp;
+
+import lombok.extern.slf4j.Slf4j;
+import net.ripe.rpki.rsyncit.util.Sha256;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * On-disk cache of downloaded snapshots, keyed by the SHA-256 of the snapshot from notification.xml.
+ *
+ * When writing the repository fails, or the process restarts, the next run needs the same snapshot again. With this
+ * cache it is read from disk instead of downloaded again. Content is verified against the hash on every read, a file
+ * that does not match is removed.
+ *
+ * The modification time of a cached file is the Last-Modified time of the download (or the epoch if there was none),
+ * it is needed for the default timestamp of the objects. When the cache grows over its maximum size the snapshots
+ * with the oldest modification time are removed first.
+ */
+@Slf4j
+class SnapshotCache {
+    private static final Pattern SHA256 = Pattern.compile("^[0-9a-f]{64}$");
+    private static final String SUFFIX = ".snapshot.xml";
+
+    private final Path directory;
+    private final long maximumSize;
+
+    SnapshotCache(Path directory, long maximumSize) {
+        this.directory = directory;
+        this.maximumSize = maximumSize;
+    }
+
+    Optional<RrdpFetcher.Downloaded> get(String expectedHash) {
+        var file = file(expectedHash);
+        if (file.isEmpty()) {
+            return Optional.empty();
+        }
+        try {
+            var content = Files.readAllBytes(file.get());
+            if (!Sha256.asString(content).equals(normalise(expectedHash))) {
+                log.warn("Cached snapshot {} does not match its hash, removing it", file.get());
+                Files.deleteIfExists(file.get());
+                return Optional.empty();
+            }
+            var modified = Files.getLastModifiedTime(file.get()).toInstant();
+            return Optional.of(new RrdpFetcher.Downloaded(content,
+                modified.equals(Instant.EPOCH) ? Optional.empty() : Optional.of(modified)));
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        } catch (IOException e) {
+            log.warn("Could not read cached snapshot {}: {}", file.get(), e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Store a snapshot of which the content was verified to match `hash`. Failures are logged, they do not affect
+     * the sync.
+     */
+    void put(String hash, RrdpFetcher.Downloaded downloaded) {
+        var file = file(hash);
+        if (file.isEmpty() || downloaded.content().length > maximumSize) {
+            return;
+        }
+        try {
+            Files.createDirectories(directory);
+            var temporaryFile = Files.createTempFile(directory, "snapshot-", ".tmp");
+            try {
+                Files.write(temporaryFile, downloaded.content());
+                Files.setLastModifiedTime(temporaryFile, FileTime.from(downloaded.lastModified().orElse(Instant.EPOCH)));
+                Files.move(temporaryFile, file.get(), ATOMIC_MOVE, REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temporaryFile);
+            }
+            evict(file.get());
+        } catch (IOException | UncheckedIOException e) {
+            log.warn("Could not store snapshot in cache {}: {}", directory, e.getMessage());
+        }
+    }
+
+    private void evict(Path keep) throws IOException {
+        try (var files = Files.list(directory)) {
+            var cached = files
+                .filter(f -> f.getFileName().toString().endsWith(SUFFIX))
+                .sorted(Comparator.comparing((Path f) -> f.equals(keep))
+                    .thenComparing(SnapshotCache::lastModifiedTime)
+                    .reversed())
+                .toList();
+            long size = 0;
+            for (var file : cached) {
+                size += Files.size(file);
+                if (size > maximumSize) {
+                    log.info("Removing snapshot {} from the snapshot cache", file);
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    private Optional<Path> file(String hash) {
+        var normalised = normalise(hash);
+        if (!SHA256.matcher(normalised).matches()) {
+            return Optional.empty();
+        }
+        return Optional.of(directory.resolve(normalised + SUFFIX));
+    }
+
+    private static String normalise(String hash) {
+        return hash.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static FileTime lastModifiedTime(Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
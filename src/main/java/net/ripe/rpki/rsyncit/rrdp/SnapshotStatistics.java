@@ -0,0 +1,69 @@
+package net.ripe.rpki.rsyncit.rrdp;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * What is in a snapshot: object counts and bytes per type, and how the timestamps of the objects were found.
+ *
+ * The counts per type are added from the (sequential) loop over the de-duplicated objects, the timestamp counters
+ * from the parallel parsing of the objects.
+ */
+public final class SnapshotStatistics {
+    private final long[] counts = new long[ObjectType.values().length];
+    private final long[] bytes = new long[ObjectType.values().length];
+    private final LongAdder timestampLookups = new LongAdder();
+    private final LongAdder timestampCacheMisses = new LongAdder();
+    private final LongAdder timestampFallbacks = new LongAdder();
+
+    void add(ObjectType type, int size) {
+        counts[type.ordinal()]++;
+        bytes[type.ordinal()] += size;
+    }
+
+    void timestampLookup() {
+        timestampLookups.increment();
+    }
+
+    void timestampCacheMiss() {
+        timestampCacheMisses.increment();
+    }
+
+    /**
+     * No timestamp could be parsed from an object, its modification time comes from {@link FallbackTimestamps}: the
+     * timestamp of the manifest next to it (or, without one, the Last-Modified time of the snapshot).
+     */
+    void timestampFallback() {
+        timestampFallbacks.increment();
+    }
+
+    public long count(ObjectType type) {
+        return counts[type.ordinal()];
+    }
+
+    public long bytes(ObjectType type) {
+        return bytes[type.ordinal()];
+    }
+
+    public long timestampFallbacks() {
+        return timestampFallbacks.sum();
+    }
+
+    /**
+     * @return fraction of objects whose timestamp came from the timestamp cache, 1.0 if there were no objects
+     */
+    public double timestampCacheHitRatio() {
+        var lookups = timestampLookups.sum();
+        return lookups == 0 ? 1.0 : (double) (lookups - timestampCacheMisses.sum()) / lookups;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.stream(ObjectType.values())
+            .filter(type -> count(type) > 0)
+            .map(type -> "%s: %d (%d bytes)".formatted(type.tag(), count(type), bytes(type)))
+            .collect(Collectors.joining(", ", "[", "]"))
+            + " timestamp cache hit ratio %.3f, %d timestamp fallbacks".formatted(timestampCacheHitRatio(), timestampFallbacks());
+    }
+}
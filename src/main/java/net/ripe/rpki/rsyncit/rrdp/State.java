@@ -6,6 +6,7 @@ import lombok.Data;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
+import net.ripe.rpki.rsyncit.util.MemoryAccounting;
 
 import java.time.Instant;
 import java.util.ArrayList;
@@ -23,6 +24,15 @@ public class State {
     @Setter
     RrdpState rrdpState;
     ConcurrentHashMap<String, Times> times;
+    // ObjectSetDigest of the objects in the currently published tree, null if unknown.
+    @Setter
+    String publishedDigest;
+    // Session and serial of the objects in the currently published tree, null if nothing was published. Unlike
+    // rrdpState it is not replaced when a fetch fails.
+    @Setter
+    PublishedSerial publishedSerial;
+    // Outlives the fetcher, so bad objects that were logged in an earlier run are not logged again
+    final BadObjectLog badObjects = new BadObjectLog();
 
     public State() {
         this.times = new ConcurrentHashMap<>();
@@ -40,12 +50,30 @@ public class State {
         }
     }
 
+    /**
+     * The timestamp is computed outside of the map: computeIfAbsent would parse the object while holding the lock of
+     * its bin, blocking the other threads with keys in that bin. When two threads miss on the same hash both parse
+     * the object and the first insert wins, the same content always has the same timestamp.
+     *
+     * @param createdAt timestamp for an object that is not in the cache yet, may return null if the object does not
+     *                  contain one: that is cached as well (so the object is not parsed again) and returned as null
+     */
     public Instant cacheTimestamps(String hash, Instant now, Supplier<Instant> createdAt) {
-        var ts = times.computeIfAbsent(hash, h -> new Times(createdAt.get(), now));
+        var ts = times.get(hash);
+        if (ts == null) {
+            var computed = new Times(createdAt.get(), now);
+            ts = times.putIfAbsent(hash, computed);
+            if (ts == null) {
+                ts = computed;
+            }
+        }
         ts.setLastMentioned(now);
         return ts.getCreatedAt();
     }
 
+    public record PublishedSerial(String sessionId, int serial) {
+    }
+
     @Data
     @AllArgsConstructor
     static class Times {
@@ -63,6 +91,14 @@ public class State {
         @JsonInclude(JsonInclude.Include.NON_NULL)
         private String failure;
         private boolean inSync;
+        // Heap use of the phases of the last sync, see MemoryAccounting
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        @Setter
+        private Map<String, MemoryAccounting.Usage> memory;
+        // rsync paths of which the last write failed, with the failure
+        @JsonInclude(JsonInclude.Include.NON_EMPTY)
+        @Setter
+        private Map<String, String> rsyncPathFailures;
 
         public RrdpState(String sessionId, Integer serial) {
             this.sessionId = sessionId;
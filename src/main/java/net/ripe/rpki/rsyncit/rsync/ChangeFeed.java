@@ -0,0 +1,128 @@
+package net.ripe.rpki.rsyncit.rsync;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * List of the files that changed between two publications, for downstream mirrors: instead of having rsync compare
+ * the complete tree, a mirror can transfer only these files (`rsync --files-from`).
+ *
+ * The feed is a text file with one entry per line, paths are relative to the publication directory:
+ * <pre>
+ * # rsyncit change feed
+ * session_id 1c33ba5d-4e16-448d-9a22-b12599ef1cba
+ * serials 29860 29861
+ * previous published-2024-01-01T10:00:00Z
+ * + rrdp.example.net/repository/new.roa
+ * M rrdp.example.net/repository/changed.mft
+ * - rrdp.example.net/repository/removed.crl
+ * </pre>
+ *
+ * `serials` is the range of serials since the previous publication (`?` when unknown, e.g. after a restart), and
+ * `previous` the publication the changes are relative to (`-` if there is none, all files are then added). A mirror
+ * that did not see the previous publication should do a full sync instead.
+ */
+@Slf4j
+public final class ChangeFeed {
+    public static final String SUFFIX = ".changes";
+
+    /**
+     * @param previousSerial serial of the previous publication, null if unknown
+     */
+    public record Serials(String sessionId, Integer previousSerial, Integer serial) {
+    }
+
+    record Changes(List<String> added, List<String> modified, List<String> removed) {
+        int size() {
+            return added.size() + modified.size() + removed.size();
+        }
+    }
+
+    private ChangeFeed() {
+    }
+
+    static Changes diff(Map<String, InPlaceIndex.Entry> previous, Map<String, InPlaceIndex.Entry> next) {
+        var added = new ArrayList<String>();
+        var modified = new ArrayList<String>();
+        var removed = new ArrayList<String>();
+        next.forEach((path, entry) -> {
+            var before = previous.get(path);
+            if (before == null) {
+                added.add(path);
+            } else if (!before.equals(entry)) {
+                modified.add(path);
+            }
+        });
+        previous.keySet().forEach(path -> {
+            if (!next.containsKey(path)) {
+                removed.add(path);
+            }
+        });
+        added.sort(null);
+        modified.sort(null);
+        removed.sort(null);
+        return new Changes(added, modified, removed);
+    }
+
+    /**
+     * Write the feed through a temporary file and a rename, so that a reader never sees a partial feed.
+     *
+     * @param durable flush the feed before the rename and its directory after it (GROUP_COMMIT durability)
+     */
+    static void write(Path file, Serials serials, String previousPublication, Changes changes, boolean durable) throws IOException {
+        var temporaryFile = Files.createTempFile(file.getParent(), "changes-", ".tmp");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(temporaryFile, StandardCharsets.UTF_8)) {
+                writer.write("# rsyncit change feed\n");
+                writer.write("session_id " + (serials != null ? serials.sessionId() : "?") + "\n");
+                writer.write("serials " + serial(serials, Serials::previousSerial) + " " + serial(serials, Serials::serial) + "\n");
+                writer.write("previous " + Objects.requireNonNullElse(previousPublication, "-") + "\n");
+                writeEntries(writer, "+ ", changes.added());
+                writeEntries(writer, "M ", changes.modified());
+                writeEntries(writer, "- ", changes.removed());
+            }
+            Files.setPosixFilePermissions(temporaryFile, RsyncWriter.FILE_PERMISSIONS);
+            if (durable) {
+                RsyncWriter.fsync(temporaryFile);
+            }
+            Files.move(temporaryFile, file, ATOMIC_MOVE, REPLACE_EXISTING);
+            if (durable) {
+                RsyncWriter.fsync(file.getParent());
+            }
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+        log.info("Wrote change feed {}: {} added, {} modified, {} removed", file, changes.added().size(),
+            changes.modified().size(), changes.removed().size());
+    }
+
+    private static void writeEntries(BufferedWriter writer, String prefix, List<String> paths) throws IOException {
+        for (var path : paths) {
+            if (path.indexOf('\n') >= 0 || path.indexOf('\r') >= 0) {
+                // Can not be represented in a line based feed (nor in a --files-from list)
+                log.warn("Not adding {} to the change feed", path.replace("\n", "\\n").replace("\r", "\\r"));
+                continue;
+            }
+            writer.write(prefix);
+            writer.write(path);
+            writer.write('\n');
+        }
+    }
+
+    private static String serial(Serials serials, Function<Serials, Integer> serial) {
+        return serials == null || serial.apply(serials) == null ? "?" : String.valueOf(serial.apply(serials));
+    }
+}
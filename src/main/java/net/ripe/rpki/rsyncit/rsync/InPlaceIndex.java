@@ -0,0 +1,133 @@
+package net.ripe.rpki.rsyncit.rsync;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import lombok.extern.slf4j.Slf4j;
+import net.ripe.rpki.rsyncit.rrdp.ObjectContent;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Size, modification time and content hash of every file in the tree written by {@link WriteMode#IN_PLACE}, so that
+ * a sync only has to touch the files that changed.
+ *
+ * Size and modification time are the "quick check" that rsync uses, but an object can be replaced by one of the same
+ * size with the same modification time, so the content hash is compared too. Otherwise the tree (and the
+ * {@link ChangeFeed}) would keep the old content.
+ *
+ * The index is filled from the file system on first use, which makes it survive restarts, and is long-lived (one per
+ * {@link net.ripe.rpki.rsyncit.service.SyncService}) after that. Not thread safe: syncs do not run concurrently.
+ */
+@Slf4j
+public class InPlaceIndex {
+    // Only for change detection, not for integrity: a fast non-cryptographic hash is enough.
+    private static final HashFunction CONTENT_HASH = Hashing.murmur3_128();
+
+    record Entry(long size, long modificationTimeMillis, long contentHash) {
+    }
+
+    static Entry entry(ObjectContent content, FileTime modificationTime) {
+        var hash = switch (content) {
+            case ObjectContent.Heap heap -> CONTENT_HASH.hashBytes(heap.bytes());
+            case ObjectContent.OffHeap offHeap -> CONTENT_HASH.hashBytes(offHeap.slab().asSlice(offHeap.offset(), offHeap.size()).asByteBuffer());
+        };
+        return new Entry(content.size(), modificationTime.toMillis(), hash.padToLong());
+    }
+
+    private final Map<String, Entry> files = new HashMap<>();
+    // Files that are no longer in the repository, with the time they were first missing.
+    private final Map<String, Instant> pendingRemovals = new HashMap<>();
+    private Path root;
+
+    void loadIfNeeded(Path root) throws IOException {
+        if (root.equals(this.root)) {
+            return;
+        }
+        files.clear();
+        pendingRemovals.clear();
+        files.putAll(listFiles(root));
+        this.root = root;
+        log.info("Loaded {} files from in-place tree {}", files.size(), root);
+    }
+
+    /**
+     * Reads all files to hash them, this is only done once after a restart.
+     *
+     * @return size, modification time and content hash of all regular files below root, by their path relative to root
+     */
+    static Map<String, Entry> listFiles(Path root) throws IOException {
+        var result = new HashMap<String, Entry>();
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.forEach(path -> {
+                try {
+                    var attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                    if (attributes.isRegularFile()) {
+                        var hash = CONTENT_HASH.hashBytes(Files.readAllBytes(path)).padToLong();
+                        result.put(root.relativize(path).toString(), new Entry(attributes.size(), attributes.lastModifiedTime().toMillis(), hash));
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+        return result;
+    }
+
+    boolean contains(String relativePath) {
+        return files.containsKey(relativePath);
+    }
+
+    boolean isUnchanged(String relativePath, Entry entry) {
+        return entry.equals(files.get(relativePath));
+    }
+
+    void written(String relativePath, Entry entry) {
+        files.put(relativePath, entry);
+        pendingRemovals.remove(relativePath);
+    }
+
+    void removed(String relativePath) {
+        files.remove(relativePath);
+        pendingRemovals.remove(relativePath);
+    }
+
+    /**
+     * Track the files that are no longer present in the repository.
+     *
+     * @return files that have been missing for at least the grace period and should be removed now
+     */
+    List<String> removals(Set<String> present, Instant now, Duration gracePeriod) {
+        pendingRemovals.keySet().removeIf(present::contains);
+        var result = new ArrayList<String>();
+        for (var path : files.keySet()) {
+            if (!present.contains(path)) {
+                var since = pendingRemovals.computeIfAbsent(path, p -> now);
+                if (!since.plus(gracePeriod).isAfter(now)) {
+                    result.add(path);
+                }
+            }
+        }
+        return result;
+    }
+
+    int pendingRemovalCount() {
+        return pendingRemovals.size();
+    }
+
+    int size() {
+        return files.size();
+    }
+}
@@ -0,0 +1,72 @@
+package net.ripe.rpki.rsyncit.rsync;
+
+import lombok.Getter;
+import net.ripe.rpki.rsyncit.config.Config;
+import net.ripe.rpki.rsyncit.rrdp.RpkiObject;
+import net.ripe.rpki.rsyncit.util.Cancellation;
+import net.ripe.rpki.rsyncit.util.SyncCancelledException;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * One of the rsync paths the objects are written to, with everything that is kept between the writes to it: the
+ * concurrency of its writers, the IN_PLACE index, the listing for the change feed and what is published.
+ *
+ * Writes to different roots are independent: every root has its own I/O pool, publication symlink and retention.
+ */
+public final class OutputRoot {
+    @Getter
+    private final Path path;
+    private final WriteConcurrencyTuner concurrencyTuner;
+    private final RsyncWriterMetrics metrics;
+    private final ForkJoinPool ioPool;
+    private final InPlaceIndex inPlaceIndex = new InPlaceIndex();
+    private final PublicationListing publicationListing = new PublicationListing();
+
+    // ObjectSetDigest of the objects published in this root, null if unknown.
+    @Getter
+    private volatile String publishedDigest;
+    // Message of the exception of the last write, null if it succeeded.
+    @Getter
+    private volatile String failure;
+
+    public OutputRoot(Path path, WriteConcurrencyTuner concurrencyTuner, RsyncWriterMetrics metrics, ForkJoinPool ioPool) {
+        this.path = path;
+        this.concurrencyTuner = concurrencyTuner;
+        this.metrics = metrics;
+        this.ioPool = ioPool;
+    }
+
+    /**
+     * Write the objects to this root and publish them, see {@link RsyncWriter#writeObjects}.
+     *
+     * @param config configuration of the sync, its rsyncPath is replaced by the path of this root
+     * @param digest digest of the objects, the published digest of this root after a successful write
+     */
+    public Path write(Config config, List<RpkiObject> objects, String digest, Instant now, Cancellation cancellation,
+                      ChangeFeed.Serials serials) throws IOException {
+        var previousDigest = publishedDigest;
+        // Until the write succeeds it is unknown what is in there.
+        publishedDigest = null;
+        var writer = new RsyncWriter(config.withRsyncPath(path), concurrencyTuner, metrics, inPlaceIndex, publicationListing, ioPool);
+        try {
+            var published = writer.writeObjects(objects, now, cancellation, serials);
+            publishedDigest = digest;
+            failure = null;
+            metrics.published();
+            return published;
+        } catch (SyncCancelledException e) {
+            // A cancelled write leaves the published repository untouched.
+            publishedDigest = previousDigest;
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            failure = String.valueOf(e.getMessage());
+            metrics.failed();
+            throw e;
+        }
+    }
+}
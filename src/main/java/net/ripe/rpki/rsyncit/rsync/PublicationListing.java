@@ -0,0 +1,41 @@
+package net.ripe.rpki.rsyncit.rsync;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * Size, modification time and content hash of every file of the last publication written in
+ * {@link WriteMode#NEW_DIRECTORY} mode, to compute the {@link ChangeFeed} of the next one.
+ *
+ * Like {@link InPlaceIndex} it is read from the file system on first use (after a restart) and long-lived after that.
+ * Not thread safe: syncs do not run concurrently.
+ */
+@Slf4j
+public class PublicationListing {
+    private Map<String, InPlaceIndex.Entry> files = Map.of();
+    private Path root;
+
+    /**
+     * @param publication real path of the current publication
+     */
+    void loadIfNeeded(Path publication) throws IOException {
+        if (publication.equals(root)) {
+            return;
+        }
+        files = InPlaceIndex.listFiles(publication);
+        root = publication;
+        log.info("Loaded {} files from publication {}", files.size(), publication);
+    }
+
+    Map<String, InPlaceIndex.Entry> files() {
+        return files;
+    }
+
+    void replace(Path publication, Map<String, InPlaceIndex.Entry> files) {
+        this.root = publication;
+        this.files = files;
+    }
+}
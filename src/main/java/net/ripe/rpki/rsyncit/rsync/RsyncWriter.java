@@ -1,17 +1,24 @@
 package net.ripe.rpki.rsyncit.rsync;
 
+import com.google.common.collect.Lists;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import net.ripe.rpki.rsyncit.config.Config;
+import net.ripe.rpki.rsyncit.jfr.SlowObjectEvent;
+import net.ripe.rpki.rsyncit.jfr.SyncPhaseEvent;
+import net.ripe.rpki.rsyncit.rrdp.ObjectContent;
 import net.ripe.rpki.rsyncit.rrdp.RpkiObject;
+import net.ripe.rpki.rsyncit.util.Cancellation;
 import org.apache.tomcat.util.http.fileupload.FileUtils;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
-import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryNotEmptyException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.FileTime;
 import java.nio.file.attribute.PosixFilePermission;
 import java.nio.file.attribute.PosixFilePermissions;
@@ -20,6 +27,8 @@ import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -41,53 +50,120 @@ public class RsyncWriter {
     public static final Set<PosixFilePermission> FILE_PERMISSIONS = PosixFilePermissions.fromString("rw-r--r--");
     public static final Set<PosixFilePermission> DIRECTORY_PERMISSIONS = PosixFilePermissions.fromString("rwxr-xr-x");
 
+    // Maximum number of files of one directory written (and in GROUP_COMMIT mode flushed) by one task, larger
+    // directories are split.
+    static final int DIRECTORY_BATCH_SIZE = 256;
 
-    private final ForkJoinPool fileWriterPool = new ForkJoinPool(2 * Runtime.getRuntime().availableProcessors());
+    // Long-lived tree (and the staging directory for its new files) in IN_PLACE mode. These names do not match
+    // PUBLICATION_DIRECTORY_PATTERN, so they are never removed by the cleanup of old publication directories.
+    public static final String IN_PLACE_DIRECTORY = "in-place";
+    static final String IN_PLACE_STAGING_DIRECTORY = "in-place-tmp";
+
+    private final ForkJoinPool fileWriterPool;
+    private final WriteConcurrencyTuner concurrencyTuner;
+    private final RsyncWriterMetrics metrics;
+    private final InPlaceIndex inPlaceIndex;
+    private final PublicationListing publicationListing;
 
     @Getter
     private final Config config;
 
     public RsyncWriter(Config config) {
+        this(config, WriteConcurrencyTuner.forAvailableProcessors(false), new RsyncWriterMetrics(new SimpleMeterRegistry()),
+            new InPlaceIndex(), new PublicationListing(), new ForkJoinPool());
+    }
+
+    /**
+     * @param ioPool pool for the blocking file system calls, its parallelism is set to the concurrency from the tuner
+     */
+    public RsyncWriter(Config config, WriteConcurrencyTuner concurrencyTuner, RsyncWriterMetrics metrics, InPlaceIndex inPlaceIndex,
+                       PublicationListing publicationListing, ForkJoinPool ioPool) {
         this.config = config;
+        this.concurrencyTuner = concurrencyTuner;
+        this.metrics = metrics;
+        this.inPlaceIndex = inPlaceIndex;
+        this.publicationListing = publicationListing;
+        this.fileWriterPool = ioPool;
+        this.fileWriterPool.setParallelism(concurrencyTuner.concurrency());
     }
 
     public Path writeObjects(List<RpkiObject> objects, Instant now) throws IOException {
+        return writeObjects(objects, now, Cancellation.none(), null);
+    }
+
+    public Path writeObjects(List<RpkiObject> objects, Instant now, Cancellation cancellation) throws IOException {
+        return writeObjects(objects, now, cancellation, null);
+    }
+
+    /**
+     * Write the objects and publish them, unless `cancellation` is cancelled first. A cancelled write throws
+     * {@link net.ripe.rpki.rsyncit.util.SyncCancelledException} and leaves the published repository as it was: in
+     * NEW_DIRECTORY mode cancellation is checked up to the rename of the temporary directory (which is then removed),
+     * in IN_PLACE mode only before the first file is changed.
+     *
+     * @param serials serials for the {@link ChangeFeed} (if enabled), null if unknown
+     */
+    public Path writeObjects(List<RpkiObject> objects, Instant now, Cancellation cancellation, ChangeFeed.Serials serials) throws IOException {
         try {
-            final Path targetDirectory = writeObjectToNewDirectory(objects, now);
-            atomicallyReplacePublishedSymlink(config.rsyncPath(), targetDirectory);
+            var writeEvent = SyncPhaseEvent.start(SyncPhaseEvent.WRITE);
+            final Path targetDirectory = switch (config.writeMode()) {
+                case NEW_DIRECTORY -> {
+                    var listing = config.changeFeedEnabled() ? new HashMap<String, InPlaceIndex.Entry>() : null;
+                    var directory = writeObjectToNewDirectory(objects, now, cancellation, listing);
+                    if (listing != null) {
+                        writeChangeFeed(directory, listing, serials);
+                    }
+                    atomicallyReplacePublishedSymlink(config.rsyncPath(), directory);
+                    if (listing != null) {
+                        publicationListing.replace(directory, listing);
+                    }
+                    yield directory;
+                }
+                case IN_PLACE -> writeObjectsInPlace(objects, now, cancellation, serials);
+            };
+            writeEvent.objectCount(objects.size());
+            writeEvent.commit();
             return targetDirectory;
         } finally {
             // Cleanup old directories even (and especially) if writing objects failed
+            var cleanupEvent = SyncPhaseEvent.start(SyncPhaseEvent.CLEANUP);
             cleanupOldTargetDirectories(now, config.rsyncPath());
+            cleanupEvent.commit();
         }
     }
 
-    record ObjectTarget(Path targetPath, byte[] content, FileTime modificationTime) {
+    record ObjectTarget(Path targetPath, ObjectContent content, FileTime modificationTime) {
     }
 
-    private Path writeObjectToNewDirectory(List<RpkiObject> objects, Instant now) throws IOException {
+    /**
+     * @param listing filled with the size, modification time and content hash of the written files, if not null
+     */
+    private Path writeObjectToNewDirectory(List<RpkiObject> objects, Instant now, Cancellation cancellation,
+                                           Map<String, InPlaceIndex.Entry> listing) throws IOException {
         // Since we don't know anything about URLs of the objects
         // they are grouped by the host name of the URL
         final Map<String, List<RpkiObject>> groupedByHost =
-                objects.stream().collect(Collectors.groupingBy(o -> o.url().getHost()));
+                objects.stream().collect(Collectors.groupingBy(o -> o.path().host()));
 
         final Path temporaryDirectory = Files.createTempDirectory(config.rsyncPath(), "rsync-writer-tmp");
+        // Totals of the file writing phase over all hosts, used to tune the number of writers
+        var writtenFiles = new AtomicLong();
+        var writeNanos = new AtomicLong();
+        var fsyncNanos = new AtomicLong();
         try {
             groupedByHost.forEach((hostName, os) -> {
+                cancellation.throwIfCancelled();
                 // create a directory per hostname (in realistic cases there will be just one)
                 var hostDirectory = temporaryDirectory.resolve(hostName);
-                var hostUrl = URI.create("rsync://" + hostName);
-
-                // Gather the relative paths of files with legal names
-                var writableContent = filterOutBadUrls(hostDirectory, os).stream()
-                        .map(rpkiObject -> {
-                            var relativeUriPath = hostUrl.relativize(rpkiObject.url()).getPath();
-                            var targetPath = hostDirectory.resolve(relativeUriPath).normalize();
-
-                            assert targetPath.normalize().startsWith(hostDirectory.normalize());
-
-                            return new ObjectTarget(targetPath, rpkiObject.bytes(), FileTime.from(rpkiObject.modificationTime()));
-                        }).toList();
+                var writableContent = objectTargets(hostDirectory, os);
+                if (writableContent.isEmpty()) {
+                    // All objects of this host were skipped, e.g. because the host is not a valid directory name
+                    return;
+                }
+                if (listing != null) {
+                    writableContent.forEach(target -> listing.put(temporaryDirectory.relativize(target.targetPath).toString(),
+                        InPlaceIndex.entry(target.content, target.modificationTime)));
+                }
 
                 // Create directories
                 // Since createDirectories is idempotent, we do not worry about the order in which it is actually
@@ -108,23 +184,37 @@ public class RsyncWriter {
                 ).join();
 
                 var t1 = System.currentTimeMillis();
-                fileWriterPool.submit(() -> writableContent.parallelStream().forEach(content -> {
-                    try {
-                        Files.write(content.targetPath, content.content);
-                        Files.setPosixFilePermissions(content.targetPath, FILE_PERMISSIONS);
-                        Files.setLastModifiedTime(content.targetPath, content.modificationTime);
-                    } catch (IOException e) {
-                        throw new UncheckedIOException(e);
+                var writeStart = System.nanoTime();
+                // Every task writes (a batch of) the files of one directory in sorted order, instead of the files of
+                // one directory being spread over all writers.
+                // In GROUP_COMMIT mode a writer flushes the batch it just wrote while the other writers are still
+                // writing, so that flushing overlaps with writing instead of being a phase of its own.
+                var batches = directoryBatches(writableContent, DIRECTORY_BATCH_SIZE);
+                runOnWriters(batches, batch -> {
+                    batch.forEach(content -> {
+                        cancellation.throwIfCancelled();
+                        writeFile(content);
+                    });
+                    if (isGroupCommit()) {
+                        var fsyncStart = System.nanoTime();
+                        batch.forEach(content -> fsync(content.targetPath));
+                        fsyncNanos.addAndGet(System.nanoTime() - fsyncStart);
                     }
-                })).join();
+                });
+                writeNanos.addAndGet(System.nanoTime() - writeStart);
+                writtenFiles.addAndGet(writableContent.size());
 
                 var t2 = System.currentTimeMillis();
-                // Set permissions and modification time on directories
+                // Set permissions and modification time on directories. All files are in place at this point, so
+                // this is also where directories are made durable.
                 try (Stream<Path> paths = Files.walk(hostDirectory)) {
                     fileWriterPool.submit(() -> paths.parallel().filter(Files::isDirectory).forEach(dir -> {
                         try {
                             Files.setPosixFilePermissions(dir, DIRECTORY_PERMISSIONS);
                             Files.setLastModifiedTime(dir, INTERNAL_DIRECTORY_LAST_MODIFIED_TIME);
+                            if (isGroupCommit()) {
+                                fsync(dir);
+                            }
                         } catch (IOException e) {
                             throw new UncheckedIOException(e);
                         }
@@ -139,12 +229,24 @@ public class RsyncWriter {
                         hostName);
             });
 
+            metrics.writePhase(fileWriterPool.getParallelism(), writtenFiles.get(), writeNanos.get());
+            concurrencyTuner.record(fileWriterPool.getParallelism(), writtenFiles.get(), writeNanos.get());
+
             // Init target directory variable after writing phase, to be sure can not be used in another scope.
             final Path targetDirectory = generatePublicationDirectoryPath(config.rsyncPath(), now);
 
             // Directory write is fully complete, rename temporary to target directory name
             Files.setLastModifiedTime(temporaryDirectory, FileTime.from(now));
             Files.setPosixFilePermissions(temporaryDirectory, DIRECTORY_PERMISSIONS);
+            if (isGroupCommit()) {
+                var fsyncStart = System.nanoTime();
+                fsync(temporaryDirectory);
+                fsyncNanos.addAndGet(System.nanoTime() - fsyncStart);
+                log.info("Flushed {} files and their directories, writers spent {}ms flushing", writtenFiles.get(), fsyncNanos.get() / 1_000_000);
+                metrics.fsync(fsyncNanos.get());
+            }
+            // Last chance to give up: after the rename this directory is published by the caller.
+            cancellation.throwIfCancelled();
             Files.move(temporaryDirectory, targetDirectory, ATOMIC_MOVE);
 
             return targetDirectory;
@@ -156,24 +258,264 @@ public class RsyncWriter {
         }
     }
 
+    private void writeFile(ObjectTarget content) {
+        try {
+            var fileStart = System.nanoTime();
+            var slowObjectEvent = SlowObjectEvent.start();
+            content.content.writeTo(content.targetPath);
+            Files.setPosixFilePermissions(content.targetPath, FILE_PERMISSIONS);
+            Files.setLastModifiedTime(content.targetPath, content.modificationTime);
+            metrics.fileWritten(System.nanoTime() - fileStart);
+            slowObjectEvent.commitIfSlow(SlowObjectEvent.WRITE, content.targetPath.toString(), content.content.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Group files by directory (directories in path order, files sorted by name within a directory) and split
+     * directories with more than `batchSize` files into batches. Adjacent batches belong to the same or neighbouring
+     * directories, so a parallel stream over them keeps the files of a directory together per writer.
+     */
+    static List<List<ObjectTarget>> directoryBatches(List<ObjectTarget> targets, int batchSize) {
+        var byDirectory = targets.stream().collect(Collectors.groupingBy(target -> target.targetPath.getParent(),
+            TreeMap::new, Collectors.toCollection(ArrayList::new)));
+        var batches = new ArrayList<List<ObjectTarget>>();
+        byDirectory.values().forEach(files -> {
+            files.sort(Comparator.comparing(target -> target.targetPath.getFileName().toString()));
+            batches.addAll(Lists.partition(files, batchSize));
+        });
+        return batches;
+    }
+
+    /**
+     * Run the action for every item as a task of its own on the writer pool and wait for all of them, so that the
+     * number of concurrent writes is the parallelism set from the tuner, not whatever the splitting of a parallel stream
+     * makes of it. If an action fails, the remaining tasks still run to completion before the first failure is thrown.
+     */
+    <T> void runOnWriters(List<T> items, Consumer<T> action) {
+        var tasks = items.stream().map(item -> fileWriterPool.submit(() -> action.accept(item))).toList();
+        RuntimeException failure = null;
+        for (var task : tasks) {
+            try {
+                task.join();
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Write the change feed of a new publication directory relative to the current publication, before the symlink
+     * is switched to it.
+     */
+    private void writeChangeFeed(Path directory, Map<String, InPlaceIndex.Entry> listing, ChangeFeed.Serials serials) throws IOException {
+        var published = config.rsyncPath().resolve("published");
+        String previousPublication = null;
+        Map<String, InPlaceIndex.Entry> previous = Map.of();
+        if (Files.exists(published)) {
+            var current = published.toRealPath();
+            publicationListing.loadIfNeeded(current);
+            previousPublication = current.getFileName().toString();
+            previous = publicationListing.files();
+        }
+        ChangeFeed.write(changeFeedPath(directory), serials, previousPublication, ChangeFeed.diff(previous, listing), isGroupCommit());
+    }
+
+    static Path changeFeedPath(Path publicationDirectory) {
+        return publicationDirectory.resolveSibling(publicationDirectory.getFileName() + ChangeFeed.SUFFIX);
+    }
+
+    /**
+     * Gather the target paths of the objects of one host, skipping objects with illegal names.
+     */
+    private static List<ObjectTarget> objectTargets(Path hostDirectory, List<RpkiObject> objects) {
+        return filterOutBadUrls(objects).stream()
+                .map(rpkiObject -> {
+                    // Paths are already normalised by the trie they were interned in
+                    var targetPath = hostDirectory.resolve(rpkiObject.path().relativePath());
+
+                    assert targetPath.normalize().startsWith(hostDirectory.normalize());
+
+                    return new ObjectTarget(targetPath, rpkiObject.content(), FileTime.from(rpkiObject.modificationTime()));
+                }).toList();
+    }
+
+    /**
+     * Apply the difference between the objects and the long-lived in-place tree: write new and changed files through
+     * a staging file and an atomic rename, remove files that are gone (after the grace period).
+     *
+     * Ordering is chosen to limit what a concurrently running rsync client can observe: all other objects are
+     * written before manifests, so a new manifest never refers to files that are not there yet, and removed files are
+     * only deleted after `inPlaceRemovalGracePeriod` so that clients which still have an older manifest can find them.
+     */
+    private Path writeObjectsInPlace(List<RpkiObject> objects, Instant now, Cancellation cancellation, ChangeFeed.Serials serials) throws IOException {
+        final Path root = config.rsyncPath().resolve(IN_PLACE_DIRECTORY);
+        final Path staging = config.rsyncPath().resolve(IN_PLACE_STAGING_DIRECTORY);
+        Files.createDirectories(root);
+        clearStagingDirectory(staging);
+        inPlaceIndex.loadIfNeeded(root);
+
+        final Map<String, List<RpkiObject>> groupedByHost =
+                objects.stream().collect(Collectors.groupingBy(o -> o.path().host()));
+        var desired = new HashMap<String, ObjectTarget>();
+        groupedByHost.forEach((hostName, os) ->
+            objectTargets(root.resolve(hostName), os)
+                .forEach(target -> desired.put(root.relativize(target.targetPath).toString(), target)));
+
+        var entries = new HashMap<String, InPlaceIndex.Entry>();
+        desired.forEach((path, target) -> entries.put(path, InPlaceIndex.entry(target.content, target.modificationTime)));
+        var changed = desired.entrySet().stream()
+                .filter(e -> !inPlaceIndex.isUnchanged(e.getKey(), entries.get(e.getKey())))
+                .toList();
+        var removed = inPlaceIndex.removals(desired.keySet(), now, config.inPlaceRemovalGracePeriod());
+        // Changes are applied to the published tree directly, so do not stop halfway through them.
+        cancellation.throwIfCancelled();
+
+        var t0 = System.currentTimeMillis();
+        var targetDirectories = changed.stream().map(e -> e.getValue().targetPath.getParent()).distinct().toList();
+        for (var dir : targetDirectories) {
+            Files.createDirectories(dir);
+        }
+
+        // For the change feed: whether a file is new has to be known before the index is updated
+        var added = changed.stream().map(Map.Entry::getKey).filter(path -> !inPlaceIndex.contains(path)).sorted().toList();
+        var modified = changed.stream().map(Map.Entry::getKey).filter(inPlaceIndex::contains).sorted().toList();
+
+        var writeStart = System.nanoTime();
+        // Manifests last, see above.
+        var manifests = changed.stream().filter(e -> e.getKey().endsWith(".mft")).toList();
+        var others = changed.stream().filter(e -> !e.getKey().endsWith(".mft")).toList();
+        for (var batch : List.of(others, manifests)) {
+            runOnWriters(batch, e -> writeInPlace(staging, e.getValue()));
+        }
+        changed.forEach(e -> inPlaceIndex.written(e.getKey(), entries.get(e.getKey())));
+        var writeNanos = System.nanoTime() - writeStart;
+
+        for (var relativePath : removed) {
+            var path = root.resolve(relativePath);
+            Files.deleteIfExists(path);
+            inPlaceIndex.removed(relativePath);
+            removeEmptyParents(root, path.getParent());
+        }
+
+        // Creating or removing entries changes the modification time of a directory: reset it (and the permissions
+        // of newly created directories) on every directory between the root and the changed files.
+        var touchedDirectories = new HashSet<Path>();
+        Stream.concat(changed.stream().map(Map.Entry::getKey), removed.stream())
+                .forEach(relativePath -> {
+                    for (var dir = root.resolve(relativePath).getParent(); dir != null && !dir.equals(root); dir = dir.getParent()) {
+                        if (!touchedDirectories.add(dir)) {
+                            break;
+                        }
+                    }
+                });
+        for (var dir : touchedDirectories) {
+            if (Files.isDirectory(dir)) {
+                Files.setPosixFilePermissions(dir, DIRECTORY_PERMISSIONS);
+                Files.setLastModifiedTime(dir, INTERNAL_DIRECTORY_LAST_MODIFIED_TIME);
+                if (isGroupCommit()) {
+                    fsync(dir);
+                }
+            }
+        }
+        Files.setPosixFilePermissions(root, DIRECTORY_PERMISSIONS);
+        Files.setLastModifiedTime(root, FileTime.from(now));
+        if (isGroupCommit()) {
+            fsync(root);
+        }
+
+        metrics.writePhase(fileWriterPool.getParallelism(), changed.size(), writeNanos);
+        concurrencyTuner.record(fileWriterPool.getParallelism(), changed.size(), writeNanos);
+
+        if (config.changeFeedEnabled()) {
+            // There is only one directory: its feed lists the changes of the last sync.
+            ChangeFeed.write(changeFeedPath(root), serials, IN_PLACE_DIRECTORY,
+                new ChangeFeed.Changes(added, modified, removed.stream().sorted().toList()), isGroupCommit());
+        }
+
+        var publishedSymlink = config.rsyncPath().resolve("published");
+        if (!Files.isSymbolicLink(publishedSymlink) || !Files.readSymbolicLink(publishedSymlink).equals(root.getFileName())) {
+            atomicallyReplacePublishedSymlink(config.rsyncPath(), root);
+        }
+
+        log.info("In-place update of {} in {}ms: {} files written ({} manifests), {} removed, {} pending removal, {} unchanged",
+                root, System.currentTimeMillis() - t0, changed.size(), manifests.size(), removed.size(),
+                inPlaceIndex.pendingRemovalCount(), desired.size() - changed.size());
+        return root;
+    }
+
+    /**
+     * Create the staging directory, or remove the staging files that a write that was interrupted (e.g. by a crash)
+     * left behind in it.
+     */
+    private static void clearStagingDirectory(Path staging) throws IOException {
+        Files.createDirectories(staging);
+        List<Path> leftovers;
+        try (Stream<Path> files = Files.list(staging)) {
+            leftovers = files.toList();
+        }
+        for (var file : leftovers) {
+            Files.deleteIfExists(file);
+        }
+        if (!leftovers.isEmpty()) {
+            log.info("Removed {} leftover staging files from {}", leftovers.size(), staging);
+        }
+    }
+
+    private void writeInPlace(Path staging, ObjectTarget content) {
+        try {
+            var fileStart = System.nanoTime();
+            var slowObjectEvent = SlowObjectEvent.start();
+            var stagingFile = Files.createTempFile(staging, "object-", ".tmp");
+            try {
+                content.content.writeTo(stagingFile);
+                Files.setPosixFilePermissions(stagingFile, FILE_PERMISSIONS);
+                Files.setLastModifiedTime(stagingFile, content.modificationTime);
+                if (isGroupCommit()) {
+                    fsync(stagingFile);
+                }
+                Files.move(stagingFile, content.targetPath, ATOMIC_MOVE, REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(stagingFile);
+            }
+            metrics.fileWritten(System.nanoTime() - fileStart);
+            slowObjectEvent.commitIfSlow(SlowObjectEvent.WRITE, content.targetPath.toString(), content.content.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void removeEmptyParents(Path root, Path dir) throws IOException {
+        for (; dir != null && !dir.equals(root); dir = dir.getParent()) {
+            try {
+                Files.deleteIfExists(dir);
+            } catch (DirectoryNotEmptyException e) {
+                return;
+            }
+        }
+    }
+
     static Path generatePublicationDirectoryPath(Path baseDir, Instant now) {
         var timeSegment = DateTimeFormatter.ISO_LOCAL_DATE_TIME.withZone(ZoneId.of("UTC")).format(now);
 
         return baseDir.resolve("published-" + timeSegment);
     }
 
-    static List<RpkiObject> filterOutBadUrls(Path hostBasedPath, Collection<RpkiObject> objects) {
-        final String normalizedHostPath = hostBasedPath.normalize().toString();
+    static List<RpkiObject> filterOutBadUrls(Collection<RpkiObject> objects) {
         return objects.stream().flatMap(object -> {
-            var objectRelativePath = Paths.get(relativePath(object.url().getPath()));
-            // Check that the resulting path of the object stays within `hostBasedPath`
+            // Check that the resulting path of the object stays within the host directory
             // to prevent URLs like rsync://bla.net/path/../../../../../PATH_INJECTION.txt
             // writing data outside the controlled path.
-            final String normalizedPath = hostBasedPath.resolve(objectRelativePath).normalize().toString();
-            if (normalizedPath.startsWith(normalizedHostPath)) {
+            if (!object.path().escapesHost()) {
                 return Stream.of(object);
             } else {
-                log.error("The object with url {} was skipped.", object.url());
+                log.error("The object with url {} was skipped.", object.path());
             }
             return Stream.empty();
         }).collect(Collectors.toList());
@@ -182,6 +524,11 @@ public class RsyncWriter {
     private void atomicallyReplacePublishedSymlink(Path baseDirectory, Path targetDirectory) throws IOException {
         Path targetSymlink = baseDirectory.resolve("published");
 
+        if (isGroupCommit()) {
+            // Make the rename of the temporary directory to its final name durable before anything points at it.
+            fsync(baseDirectory);
+        }
+
         // Atomically replace the symlink to point to the new target directory. We cannot
         // atomically replace a symlink except by first creating a temporary one and then
         // renaming that to the final symlink, which will atomically replace it.
@@ -195,6 +542,26 @@ public class RsyncWriter {
 
         Path symlink = Files.createSymbolicLink(temporarySymlink, targetDirectory.getFileName());
         Files.move(symlink, targetSymlink, ATOMIC_MOVE, REPLACE_EXISTING);
+
+        if (isGroupCommit()) {
+            fsync(baseDirectory);
+        }
+    }
+
+    private boolean isGroupCommit() {
+        return config.writeDurability() == WriteDurability.GROUP_COMMIT;
+    }
+
+    /**
+     * Flush a file or directory to disk. Opening a directory read-only to fsync it works on Linux (which is what we
+     * run on), it fails on some other platforms.
+     */
+    static void fsync(Path path) {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     void cleanupOldTargetDirectories(Instant now, Path baseDirectory) throws IOException {
@@ -224,6 +591,7 @@ public class RsyncWriter {
             fileWriterPool.submit(() -> oldDirectoriesToDelete.parallel().forEach(directory -> {
                 log.info("Removing old publication directory {}", directory);
                 try {
+                    Files.deleteIfExists(changeFeedPath(directory));
                     FileUtils.deleteDirectory(directory.toFile());
                 } catch (IOException e) {
                     log.warn("Removing old publication directory {} failed", directory, e);
@@ -239,11 +607,4 @@ public class RsyncWriter {
             throw new UncheckedIOException(e);
         }
     }
-
-    private static String relativePath(final String path) {
-        if (path.startsWith("/")) {
-            return path.substring(1);
-        }
-        return path;
-    }
 }
@@ -0,0 +1,86 @@
+package net.ripe.rpki.rsyncit.rsync;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public final class RsyncWriterMetrics {
+    private final AtomicInteger writeConcurrency = new AtomicInteger();
+    private final AtomicLong filesPerSecond = new AtomicLong();
+
+    private final Timer fileWriteTimer;
+    private final Timer fsyncTimer;
+    private final Counter successCount;
+    private final Counter failureCount;
+
+    public RsyncWriterMetrics(MeterRegistry meterRegistry) {
+        this(meterRegistry, Tags.empty());
+    }
+
+    /**
+     * @param tags added to all meters, to tell the writers of multiple rsync paths apart
+     */
+    public RsyncWriterMetrics(MeterRegistry meterRegistry, Tags tags) {
+        fileWriteTimer = Timer.builder("rsyncit.writer.file.write")
+                .description("Time spent writing a single file (content, permissions and modification time)")
+                .tags(tags)
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+
+        fsyncTimer = Timer.builder("rsyncit.writer.fsync")
+                .description("Time spent flushing files and directories of a publication to disk, summed over the writers (GROUP_COMMIT durability only)")
+                .tags(tags)
+                .register(meterRegistry);
+
+        Gauge.builder("rsyncit.writer.concurrency", writeConcurrency::get)
+                .description("Number of concurrent file writers used in the last write phase")
+                .tags(tags)
+                .register(meterRegistry);
+
+        Gauge.builder("rsyncit.writer.throughput", filesPerSecond::get)
+                .description("Files written per second in the last write phase")
+                .tags(tags)
+                .baseUnit("files/s")
+                .register(meterRegistry);
+
+        successCount = buildCounter("success", tags, meterRegistry);
+        failureCount = buildCounter("failed", tags, meterRegistry);
+    }
+
+    private static Counter buildCounter(String statusTag, Tags tags, MeterRegistry registry) {
+        return Counter.builder("rsyncit.writer.published")
+                .description("Number of writes of a publication to an rsync path")
+                .tags(tags)
+                .tag("status", statusTag)
+                .register(registry);
+    }
+
+    public void published() {
+        successCount.increment();
+    }
+
+    public void failed() {
+        failureCount.increment();
+    }
+
+    public void fileWritten(long elapsedNanos) {
+        fileWriteTimer.record(elapsedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void fsync(long elapsedNanos) {
+        fsyncTimer.record(elapsedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void writePhase(int concurrency, long files, long elapsedNanos) {
+        writeConcurrency.set(concurrency);
+        if (elapsedNanos > 0) {
+            filesPerSecond.set(Math.round(files * 1_000_000_000.0 / elapsedNanos));
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package net.ripe.rpki.rsyncit.rsync;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Pick the number of concurrent file writers based on the throughput measured in earlier write phases.
+ *
+ * The best concurrency level depends heavily on what `rsyncPath` is on: a local NVMe disk saturates at a few
+ * writers, network storage or a throttled cloud volume needs a lot more requests in flight to hide latency. This
+ * does a simple hill climb: after every write phase the throughput (files/s) is compared to the best level seen so
+ * far, moving further in the same direction while it improves and turning around with a smaller step when it does
+ * not. Once the step is 1 it alternates between the best level and one of its direct neighbours: running the best
+ * level again keeps its throughput current, so it follows changes in the storage over time (also when everything
+ * gets slower) instead of comparing with a measurement that no longer holds.
+ *
+ * The instance is long-lived (one per {@link net.ripe.rpki.rsyncit.service.SyncService}) so that the level is
+ * remembered across syncs.
+ */
+@Slf4j
+public class WriteConcurrencyTuner {
+    // Phases with fewer files than this are dominated by noise and are ignored.
+    static final int MINIMAL_SAMPLE_SIZE = 1000;
+
+    private final int minimum;
+    private final int maximum;
+    private final boolean enabled;
+
+    private int current;
+    private int best;
+    private double bestThroughput;
+    private int step;
+    private int direction = 1;
+
+    public WriteConcurrencyTuner(int minimum, int maximum, int initial, boolean enabled) {
+        if (minimum < 1 || maximum < minimum || initial < minimum || initial > maximum) {
+            throw new IllegalArgumentException("Need 1 <= minimum <= initial <= maximum, got %d, %d, %d".formatted(minimum, initial, maximum));
+        }
+        this.minimum = minimum;
+        this.maximum = maximum;
+        this.enabled = enabled;
+        this.current = initial;
+        this.best = initial;
+        this.step = Math.max(1, initial / 2);
+    }
+
+    public static WriteConcurrencyTuner forAvailableProcessors(boolean enabled) {
+        var processors = Runtime.getRuntime().availableProcessors();
+        return new WriteConcurrencyTuner(1, 16 * processors, 2 * processors, enabled);
+    }
+
+    public synchronized int concurrency() {
+        return current;
+    }
+
+    /**
+     * Record the result of a write phase that ran with `concurrency` writers and pick the level for the next one.
+     */
+    public synchronized void record(int concurrency, long files, long elapsedNanos) {
+        if (!enabled || files < MINIMAL_SAMPLE_SIZE || elapsedNanos <= 0) {
+            return;
+        }
+        var throughput = files * 1_000_000_000.0 / elapsedNanos;
+        if (concurrency == best || bestThroughput == 0) {
+            // Re-measurement of the best level: take the new value so that we follow changes of the storage.
+            best = concurrency;
+            bestThroughput = throughput;
+        } else if (throughput > bestThroughput) {
+            best = concurrency;
+            bestThroughput = throughput;
+        } else {
+            direction = -direction;
+            step = Math.max(1, step / 2);
+        }
+
+        int next;
+        if (step == 1 && concurrency != best) {
+            // Converged, measure the best level again before probing the next neighbour.
+            next = best;
+        } else {
+            next = clamp(best + direction * step);
+            if (next == best) {
+                // at one of the bounds, try the other way
+                direction = -direction;
+                next = clamp(best + direction * step);
+            }
+        }
+        log.info("Write phase with {} writers: {} files/s (best {} writers at {} files/s), next phase uses {} writers",
+            concurrency, Math.round(throughput), best, Math.round(bestThroughput), next);
+        current = next;
+    }
+
+    public synchronized int best() {
+        return best;
+    }
+
+    private int clamp(int level) {
+        return Math.max(minimum, Math.min(maximum, level));
+    }
+}
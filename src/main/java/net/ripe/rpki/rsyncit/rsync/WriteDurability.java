@@ -0,0 +1,19 @@
+package net.ripe.rpki.rsyncit.rsync;
+
+/**
+ * How hard {@link RsyncWriter} tries to make a publication survive a crash before `published` points at it.
+ */
+public enum WriteDurability {
+    /**
+     * Never fsync, leave everything to the write-back of the OS. After a crash `published` may point at a directory
+     * with missing or empty files.
+     */
+    NONE,
+    /**
+     * Flush file contents in batches from the writer threads, every writer flushes the files it just wrote while the
+     * others continue writing (so flushing overlaps with writing and the journal commits of concurrent flushes get
+     * grouped), fsync every directory once after its content is complete, flush the change feed and fsync the base
+     * directory before and after the `published` symlink swap.
+     */
+    GROUP_COMMIT
+}
@@ -0,0 +1,19 @@
+package net.ripe.rpki.rsyncit.rsync;
+
+/**
+ * How {@link RsyncWriter} turns a set of objects into the tree served by rsyncd.
+ */
+public enum WriteMode {
+    /**
+     * Write the complete repository into a new `published-*` directory and atomically swap the `published` symlink.
+     * rsync clients always see one consistent publication, but every sync costs directory creation and inode churn
+     * proportional to the size of the repository.
+     */
+    NEW_DIRECTORY,
+    /**
+     * Keep one long-lived tree and only apply the difference with the previous sync. The cost of a sync is
+     * proportional to the number of changes, but an rsync client that runs during the update can see a mix of the
+     * old and the new state of the repository. See the README for the trade-offs.
+     */
+    IN_PLACE
+}
@@ -0,0 +1,86 @@
+package net.ripe.rpki.rsyncit.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.TreeMap;
+
+/**
+ * End-to-end freshness: the time between a serial first appearing in notification.xml (or in the publication bundle
+ * of the leader) and the rsync repository containing it.
+ *
+ * Publishing a serial also publishes every earlier serial of the session, so the lag is recorded for all serials
+ * that were seen but not published yet, including the ones that were skipped. The current lag is the age of the
+ * oldest of those, zero when the repository is up to date.
+ */
+@Slf4j
+public final class FreshnessTracker {
+    private final Timer lagTimer;
+
+    private String sessionId;
+    // Published serial of the current session
+    private Integer publishedSerial;
+    // A serial of any session was published, kept when the session changes: the repository still serves that one
+    private boolean anyPublished;
+    // Serials of the session that are newer than the published serial, with the time they were first seen
+    private final TreeMap<Integer, Instant> pending = new TreeMap<>();
+
+    public FreshnessTracker(MeterRegistry meterRegistry) {
+        lagTimer = Timer.builder("rsyncit.freshness.lag")
+                .description("Time from a serial first appearing upstream until it is published in the rsync repository")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+
+        Gauge.builder("rsyncit.freshness.lag.current", () -> currentLag(Instant.now()).toMillis() / 1000.0)
+                .description("Age of the oldest serial that appeared upstream but is not published yet, 0 when up to date")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+    }
+
+    public synchronized void seen(String sessionId, int serial, Instant at) {
+        if (!sessionId.equals(this.sessionId)) {
+            // Serials of the old session will never be published
+            this.sessionId = sessionId;
+            publishedSerial = null;
+            pending.clear();
+        }
+        if (publishedSerial == null || serial > publishedSerial) {
+            pending.putIfAbsent(serial, at);
+        }
+    }
+
+    public synchronized void published(String sessionId, int serial, Instant at) {
+        if (!sessionId.equals(this.sessionId)) {
+            // Not seen before (should not happen): nothing to measure the lag against
+            seen(sessionId, serial, at);
+        }
+        var published = pending.headMap(serial, true);
+        published.values().forEach(firstSeen -> lagTimer.record(Duration.between(firstSeen, at)));
+        var lag = published.isEmpty() ? Duration.ZERO : Duration.between(published.firstEntry().getValue(), at);
+        published.clear();
+        if (publishedSerial == null || serial > publishedSerial) {
+            publishedSerial = serial;
+        }
+        anyPublished = true;
+        log.info("Published serial {} of session {}, lag {}s", serial, sessionId, lag.toSeconds());
+    }
+
+    /**
+     * @return true if a serial has been published since startup, in any session
+     */
+    public synchronized boolean hasPublished() {
+        return anyPublished;
+    }
+
+    public synchronized Duration currentLag(Instant now) {
+        if (pending.isEmpty()) {
+            return Duration.ZERO;
+        }
+        return Duration.between(pending.firstEntry().getValue(), now);
+    }
+}
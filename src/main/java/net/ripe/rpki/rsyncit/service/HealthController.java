@@ -1,19 +1,25 @@
 package net.ripe.rpki.rsyncit.service;
 
+import net.ripe.rpki.rsyncit.config.AppConfig;
 import net.ripe.rpki.rsyncit.rrdp.State;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.time.Instant;
+
 @RestController
 public class HealthController {
 
     private final SyncService syncService;
+    private final AppConfig appConfig;
 
     @Autowired
-    public HealthController(SyncService syncService) {
+    public HealthController(SyncService syncService, AppConfig appConfig) {
         this.syncService = syncService;
+        this.appConfig = appConfig;
     }
 
     @GetMapping(value = "status")
@@ -25,4 +31,20 @@ public class HealthController {
         return ResponseEntity.ok(rrdpState);
     }
 
+    /**
+     * For the load balancer: not ready (503) until the first publication, and when a serial that appeared upstream
+     * has not been published within `maximumFreshnessLag`.
+     */
+    @GetMapping(value = "readiness")
+    public ResponseEntity<Readiness> readiness() {
+        var freshness = syncService.getFreshness();
+        var lag = freshness.currentLag(Instant.now());
+        var maximumLag = appConfig.getMaximumFreshnessLag();
+        var ready = freshness.hasPublished() && lag.compareTo(maximumLag) <= 0;
+        return ResponseEntity.status(ready ? HttpStatus.OK : HttpStatus.SERVICE_UNAVAILABLE)
+            .body(new Readiness(ready, freshness.hasPublished(), lag.toSeconds(), maximumLag.toSeconds()));
+    }
+
+    public record Readiness(boolean ready, boolean published, long lagSeconds, long maximumLagSeconds) {
+    }
 }
@@ -0,0 +1,50 @@
+package net.ripe.rpki.rsyncit.service;
+
+import net.ripe.rpki.rsyncit.bundle.PublicationBundle;
+import net.ripe.rpki.rsyncit.config.AppConfig;
+import net.ripe.rpki.rsyncit.config.SyncMode;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+/**
+ * Serves the objects of the last successful sync as a {@link PublicationBundle}, in LEADER mode.
+ */
+@RestController
+public class PublicationBundleController {
+
+    private final SyncService syncService;
+    private final AppConfig appConfig;
+
+    @Autowired
+    public PublicationBundleController(SyncService syncService, AppConfig appConfig) {
+        this.syncService = syncService;
+        this.appConfig = appConfig;
+    }
+
+    @GetMapping(value = "publication-bundle")
+    public ResponseEntity<StreamingResponseBody> publicationBundle(@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        if (appConfig.getSyncMode() != SyncMode.LEADER) {
+            return ResponseEntity.notFound().build();
+        }
+        var publication = syncService.getPublication().get();
+        if (publication == null) {
+            // Nothing published since this node started
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+        var etag = "\"" + publication.digest() + "\"";
+        if (etag.equals(ifNoneMatch)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+        }
+        return ResponseEntity.ok()
+            .eTag(etag)
+            .contentType(MediaType.APPLICATION_OCTET_STREAM)
+            .body(out -> PublicationBundle.write(publication, out));
+    }
+}
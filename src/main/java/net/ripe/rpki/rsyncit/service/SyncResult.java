@@ -0,0 +1,19 @@
+package net.ripe.rpki.rsyncit.service;
+
+import net.ripe.rpki.rsyncit.util.MemoryAccounting;
+
+import java.util.Map;
+
+/**
+ * Result of a sync run.
+ *
+ * @param outcome        one of the {@link net.ripe.rpki.rsyncit.jfr.SyncEvent} outcomes
+ * @param sessionId      session of the repository, null if notification.xml could not be fetched
+ * @param serial         serial that was synced, null if notification.xml could not be fetched
+ * @param phaseMillis    duration in milliseconds of the phases that ran (`fetch`, `write`) and of the whole sync (`total`)
+ * @param phaseMemory    heap use of the same phases
+ * @param newerSerialSeen a newer serial appeared while syncing
+ */
+public record SyncResult(String outcome, String sessionId, Integer serial, Map<String, Long> phaseMillis,
+                         Map<String, MemoryAccounting.Usage> phaseMemory, boolean newerSerialSeen) {
+}
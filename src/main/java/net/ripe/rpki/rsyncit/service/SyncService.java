@@ -1,23 +1,50 @@
 package net.ripe.rpki.rsyncit.service;
 
+import com.google.common.util.concurrent.Uninterruptibles;
 import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import jakarta.annotation.PreDestroy;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
+import net.ripe.rpki.rsyncit.bundle.BundleFetcher;
 import net.ripe.rpki.rsyncit.config.AppConfig;
 import net.ripe.rpki.rsyncit.config.Config;
+import net.ripe.rpki.rsyncit.config.SyncMode;
+import net.ripe.rpki.rsyncit.jfr.SyncEvent;
 import net.ripe.rpki.rsyncit.rrdp.RRDPFetcherMetrics;
 import net.ripe.rpki.rsyncit.rrdp.RrdpFetcher;
 import net.ripe.rpki.rsyncit.rrdp.State;
-import net.ripe.rpki.rsyncit.rsync.RsyncWriter;
+import net.ripe.rpki.rsyncit.rsync.ChangeFeed;
+import net.ripe.rpki.rsyncit.rsync.OutputRoot;
+import net.ripe.rpki.rsyncit.rsync.RsyncWriterMetrics;
+import net.ripe.rpki.rsyncit.rsync.WriteConcurrencyTuner;
+import net.ripe.rpki.rsyncit.util.Cancellation;
+import net.ripe.rpki.rsyncit.util.ExecutionPools;
+import net.ripe.rpki.rsyncit.util.MemoryAccounting;
+import net.ripe.rpki.rsyncit.util.SyncCancelledException;
 import net.ripe.rpki.rsyncit.util.Time;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClient;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
 
 @Slf4j
 @Component
@@ -28,7 +55,21 @@ public class SyncService {
     private final AppConfig appConfig;
     private final State state;
     private final RRDPFetcherMetrics metrics;
-    private final AtomicBoolean isRunning = new AtomicBoolean(false);
+    private final ExecutionPools executionPools;
+    // The rsync paths, in the order of the configuration
+    private final List<OutputRoot> outputRoots;
+    private final FreshnessTracker freshness;
+    private final MemoryAccounting memoryAccounting;
+    // Held while a sync runs: scheduled syncs are skipped while it is held, on-demand syncs wait for it
+    private final ReentrantLock syncLock = new ReentrantLock();
+    // LEADER mode: the objects of the last successful sync, served to followers as a publication bundle
+    private final AtomicReference<RrdpFetcher.SuccessfulFetch> publication = new AtomicReference<>();
+    // Checks notification.xml for a newer serial while a sync is running
+    private final ScheduledExecutorService serialChecker = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("rsyncit-serial-check").daemon().factory());
+    // Writes to the rsync paths when there are more than one
+    private final ExecutorService rootWriters = Executors.newCachedThreadPool(
+            Thread.ofPlatform().name("rsyncit-writer-", 0).daemon().factory());
 
     @Autowired
     public SyncService(WebClient webClient,
@@ -37,81 +78,388 @@ public class SyncService {
         this.appConfig = appConfig;
         this.webClient = webClient;
         this.metrics = new RRDPFetcherMetrics(meterRegistry);
+        var rsyncPaths = appConfig.getRsyncPaths();
+        var writeConcurrencyTuners = rsyncPaths.stream()
+                .map(path -> WriteConcurrencyTuner.forAvailableProcessors(appConfig.isWriteConcurrencyTuningEnabled()))
+                .toList();
+        this.executionPools = new ExecutionPools(appConfig.getParseThreads(), writeConcurrencyTuners.getFirst().concurrency(),
+                rsyncPaths.size(), meterRegistry);
+        this.outputRoots = IntStream.range(0, rsyncPaths.size())
+                .mapToObj(i -> new OutputRoot(rsyncPaths.get(i), writeConcurrencyTuners.get(i),
+                        new RsyncWriterMetrics(meterRegistry, Tags.of("root", rsyncPaths.get(i).toString())), executionPools.io(i)))
+                .toList();
+        this.freshness = new FreshnessTracker(meterRegistry);
+        // The pools of ExecutionPools and the other rsyncit threads, and Reactor Netty for the downloads
+        this.memoryAccounting = new MemoryAccounting(
+                name -> name.startsWith("rsyncit-") || name.startsWith("reactor-http-"), meterRegistry);
         this.state = new State();
     }
 
+    /**
+     * Stop the threads of the service when the application shuts down, interrupting a sync that is still running.
+     */
+    @PreDestroy
+    public void shutdown() {
+        serialChecker.shutdownNow();
+        rootWriters.shutdownNow();
+        executionPools.close();
+    }
+
     public void sync() {
-        boolean shouldRun = true;
+        if (!syncLock.tryLock()) {
+            log.info("Sync is already running, skipping this run. Most likely it means that the system is abnormally slow.");
+            metrics.tooSlow();
+            return;
+        }
         try {
-            shouldRun = isRunning.compareAndSet(false, true);
-            if (shouldRun) {
-                doSync();
-            } else {
-                log.info("Sync is already running, skipping this run. Most likely it means that the system is abnormally slow.");
-                metrics.tooSlow();
-            }
+            syncRepeatedly();
         } finally {
-            if (shouldRun) {
-                // shouldRun is true by default to prevent the service to get stuck in the "running" state.
-                // So if this thread was interrupted before "compareAndSet", we reset it to "not running".
-                isRunning.set(false);
-            }
+            syncLock.unlock();
+        }
+    }
+
+    /**
+     * Sync right away, after the sync that is running (if any) has finished.
+     *
+     * @param started called when this sync holds the sync lock, right before it starts
+     * @return result of the sync
+     */
+    public SyncResult syncNow(Runnable started) throws InterruptedException {
+        syncLock.lockInterruptibly();
+        try {
+            started.run();
+            return syncRepeatedly();
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    private SyncResult syncRepeatedly() {
+        // When a newer serial appears during a sync, sync again right away instead of waiting for the next
+        // run. The sync is abandoned for the newer serial at most maxConsecutivePreemptions times in a row,
+        // after that one is finished regardless, so that under heavy churn the published repository is at
+        // most one serial behind (instead of never being updated).
+        var maxPreemptions = appConfig.getMaxConsecutivePreemptions();
+        var attempt = 0;
+        SyncResult result;
+        while ((result = doSync(attempt < maxPreemptions)).newerSerialSeen() && attempt < maxPreemptions) {
+            attempt++;
+            log.info("A newer serial appeared during the sync, syncing again (attempt {})", attempt + 1);
         }
+        return result;
     }
 
-    private void doSync() {
+    /**
+     * @param preemptible abandon the sync when a newer serial appears
+     */
+    private SyncResult doSync(boolean preemptible) {
+        var syncStart = System.nanoTime();
+        var phaseMillis = new LinkedHashMap<String, Long>();
+        var phaseMemory = new LinkedHashMap<String, MemoryAccounting.Usage>();
+        var syncMemory = memoryAccounting.start();
+        var syncEvent = new SyncEvent();
+        syncEvent.begin();
+        // The result of the sync, recorded in the JFR event too
+        var outcome = SyncEvent.ERROR;
+        String sessionId = null;
+        Integer serial = null;
+        var objectCount = 0;
         var config = appConfig.getConfig();
-        var rrdpFetcher = new RrdpFetcher(config, webClient, state, metrics);
+        var cancellation = new Cancellation();
+        var newerSerialSeen = new AtomicBoolean();
+        var rrdpFetcher = new RrdpFetcher(config, webClient, state, metrics, cancellation, executionPools.cpu());
+        var stopChecking = checkForNewerSerial(config, rrdpFetcher, preemptible ? cancellation : null, newerSerialSeen);
+        try {
+
+            Supplier<RrdpFetcher.FetchResult> fetch = config.syncMode() == SyncMode.FOLLOWER
+                    ? new BundleFetcher(config, webClient, state)::fetchObjects
+                    : rrdpFetcher::fetchObjects;
+            // notification.xml (or the bundle) is the first thing a fetch downloads
+            var fetchStart = Instant.now();
+            var fetchMemory = memoryAccounting.start();
+            var t = Time.timed(fetch);
+            final RrdpFetcher.FetchResult fetchResult = t.getResult();
+            phaseMillis.put("fetch", t.getTime());
+            phaseMemory.put("fetch", fetchMemory.stop());
+            var notification = rrdpFetcher.getNotification();
+            if (notification != null) {
+                // Replaced by the actual result below, this is for the fetches that did not finish.
+                sessionId = notification.sessionId();
+                serial = notification.serial();
+            }
+            serialSeen(notification, fetchResult, fetchStart);
 
-        var t = Time.timed(rrdpFetcher::fetchObjects);
-        final RrdpFetcher.FetchResult fetchResult = t.getResult();
+            switch (fetchResult) {
+                case RrdpFetcher.NoUpdates noUpdates -> {
+                    sessionId = noUpdates.sessionId();
+                    serial = noUpdates.serial();
+                    noUpdates(noUpdates);
+                    outcome = noUpdates.stale() ? SyncEvent.STALE : SyncEvent.NO_UPDATES;
+                }
+                case RrdpFetcher.SuccessfulFetch success -> {
+                    sessionId = success.sessionId();
+                    serial = success.serial();
+                    objectCount = success.objects().size();
+                    outcome = onSuccess(success, t, config, cancellation, phaseMillis, phaseMemory);
+                }
+                case RrdpFetcher.Cancelled cancelled -> {
+                    onPreempted(cancelled.reason());
+                    outcome = SyncEvent.PREEMPTED;
+                }
+                case RrdpFetcher.FailedFetch failed -> {
+                    onFailure(failed);
+                    outcome = SyncEvent.FAILED;
+                }
+                case RrdpFetcher.Timeout timeout -> {
+                    metrics.timeout();
+                    outcome = SyncEvent.TIMEOUT;
+                }
+                case null, default ->
+                    throw new UnsupportedOperationException("Unknown fetch result: " + fetchResult);
+            }
+        } catch (SyncCancelledException e) {
+            onPreempted(e.getMessage());
+            outcome = SyncEvent.PREEMPTED;
+        } finally {
+            stopChecking.run();
+            // All objects are written (or given up on) at this point
+            rrdpFetcher.close();
+            // Also when the write failed: that is when the failures are interesting
+            if (state.getRrdpState() != null) {
+                state.getRrdpState().setRsyncPathFailures(rsyncPathFailures());
+            }
+            syncEvent.fetched(sessionId, serial, objectCount);
+            syncEvent.outcome(outcome);
+            syncEvent.commit();
+        }
+        phaseMillis.put("total", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - syncStart));
+        phaseMemory.put("total", syncMemory.stop(phaseMemory.values()));
+        memoryAccounting.record(phaseMemory);
+        if (state.getRrdpState() != null) {
+            state.getRrdpState().setMemory(phaseMemory);
+        }
+        log.info("Heap use of the sync: {}", phaseMemory);
+        return new SyncResult(outcome, sessionId, serial, phaseMillis, phaseMemory, newerSerialSeen.get());
+    }
 
-        switch (fetchResult) {
-            case RrdpFetcher.NoUpdates noUpdates -> noUpdates(noUpdates);
-            case RrdpFetcher.SuccessfulFetch success -> onSuccess(success, t, config);
-            case RrdpFetcher.FailedFetch failed -> onFailure(failed);
-            case RrdpFetcher.Timeout timeout -> metrics.timeout();
-            case null, default ->
-                throw new UnsupportedOperationException("Unknown fetch result: " + fetchResult);
+    /**
+     * Periodically fetch notification.xml while the sync runs and compare it with the notification the sync is
+     * working on. Only notification.xml is fetched, so this is cheap compared to the sync itself.
+     *
+     * @param cancellation cancelled when a newer serial is seen, null to only record that in `newerSerialSeen`
+     * @return action that stops the checks
+     */
+    private Runnable checkForNewerSerial(Config config, RrdpFetcher rrdpFetcher, Cancellation cancellation, AtomicBoolean newerSerialSeen) {
+        var interval = config.preemptionCheckInterval().toMillis();
+        if (interval <= 0) {
+            return () -> {};
         }
+        var check = serialChecker.scheduleWithFixedDelay(() -> {
+            var inProgress = rrdpFetcher.getNotification();
+            if (inProgress == null || newerSerialSeen.get()) {
+                return;
+            }
+            try {
+                var latest = rrdpFetcher.fetchNotification();
+                freshness.seen(latest.sessionId(), latest.serial(), Instant.now());
+                if (latest.supersedes(inProgress)) {
+                    newerSerialSeen.set(true);
+                    log.info("Session id {} and serial {} appeared while syncing session id {} and serial {}",
+                            latest.sessionId(), latest.serial(), inProgress.sessionId(), inProgress.serial());
+                    if (cancellation != null) {
+                        cancellation.cancel("serial %d of session %s is superseded by serial %d of session %s".formatted(
+                                inProgress.serial(), inProgress.sessionId(), latest.serial(), latest.sessionId()));
+                    }
+                }
+            } catch (Exception e) {
+                // Not a problem for the sync itself, it just will not be preempted.
+                log.info("Could not check {} for a newer serial: {}", config.rrdpUrl(), e.getMessage());
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+        return () -> check.cancel(false);
     }
 
-    private void onSuccess(RrdpFetcher.SuccessfulFetch success, Time.Timed<RrdpFetcher.FetchResult> t, Config config) {
+    /**
+     * @return outcome of the sync, one of the {@link SyncEvent} outcomes
+     */
+    private String onSuccess(RrdpFetcher.SuccessfulFetch success, Time.Timed<RrdpFetcher.FetchResult> t, Config config,
+                             Cancellation cancellation, Map<String, Long> phaseMillis,
+                             Map<String, MemoryAccounting.Usage> phaseMemory) {
         if (config.minimalObjectCountCheckEnabled()) {
             if (success.objects().size() < config.minimalObjectCount()) {
                 log.error("Will not write objects to the rsync repository: the number of objects {} is smaller than the minimal threshold {}.",
                         success.objects().size(), config.minimalObjectCount());
                 metrics.rejectAsTooSmall();
-                return;
+                return SyncEvent.REJECTED;
             }
         }
-        metrics.success(success.serial());
         log.info("Fetched {} objects in {}ms", success.objects().size(), t.getTime());
+        var roots = outputRoots.stream().filter(root -> !success.digest().equals(root.getPublishedDigest())).toList();
+        if (roots.isEmpty()) {
+            // Session reset or a new serial without changes to the content: the published tree is already correct,
+            // writing it again would only make rsync clients scan the whole tree.
+            metrics.unchanged(success.serial());
+            state.setRrdpState(new State.RrdpState(success.sessionId(), success.serial()));
+            state.getRrdpState().markInSync();
+            log.info("Objects of session_id {} and serial {} are the same as the published objects (digest {}), not writing",
+                    success.sessionId(), success.serial(), success.digest());
+            state.removeOldObject(Instant.now().minus(1, ChronoUnit.HOURS));
+            publish(success, config);
+            return SyncEvent.UNCHANGED;
+        }
+        var previousRrdpState = state.getRrdpState();
         state.setRrdpState(new State.RrdpState(success.sessionId(), success.serial()));
         log.info("Updated RRDP state to session_id {} and serial {}", success.sessionId(), success.serial());
+        // The published tree is about to change: until the write succeeds it is unknown what is in there.
+        state.setPublishedDigest(null);
 
-        var rsyncWriter = new RsyncWriter(config);
-        var r = Time.timed(() -> {
-            try {
-                return rsyncWriter.writeObjects(success.objects(), Instant.now());
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
-        });
-        log.info("Wrote objects to {} in {}ms", r.getResult(), r.getTime());
+        // The serial range of the change feed starts at the serial that is currently published, if that is known
+        var serials = new ChangeFeed.Serials(success.sessionId(),
+                previousRrdpState != null && previousRrdpState.isInSync() && success.sessionId().equals(previousRrdpState.getSessionId())
+                        ? previousRrdpState.getSerial() : null,
+                success.serial());
+        var writeMemory = memoryAccounting.start();
+        var r = Time.timed(() -> writeObjects(roots, success, config, cancellation, serials));
+        state.setPublishedDigest(publishedDigest());
+        var failures = r.getResult();
+        if (!failures.isEmpty()) {
+            // Go back to the previous state, so that the next run tries this serial again (with the snapshot from the
+            // snapshot cache, if it is enabled) instead of skipping it as already seen. The roots that were written
+            // have the new digest, so the next run only writes the others.
+            state.setRrdpState(previousRrdpState);
+            throw writeFailure(failures, roots.size());
+        }
+        log.info("Wrote objects to {} rsync path(s) in {}ms", roots.size(), r.getTime());
+        phaseMillis.put("write", r.getTime());
+        phaseMemory.put("write", writeMemory.stop());
+        metrics.success(success.serial());
 
         state.getRrdpState().markInSync();
+        publish(success, config);
 
         // Remove objects that were in old snapshots and didn't appear for a while
         state.removeOldObject(Instant.now().minus(1, ChronoUnit.HOURS));
+        return SyncEvent.SUCCESS;
+    }
+
+    /**
+     * Write the objects to all roots at the same time, every root on its own thread, and wait for all of them. A
+     * root is published as soon as it is written, it does not wait for the others.
+     *
+     * @return exception per root that could not be written, empty if all were written
+     */
+    private Map<OutputRoot, RuntimeException> writeObjects(List<OutputRoot> roots, RrdpFetcher.SuccessfulFetch success,
+                                                           Config config, Cancellation cancellation, ChangeFeed.Serials serials) {
+        var now = Instant.now();
+        var failures = new LinkedHashMap<OutputRoot, RuntimeException>();
+        if (roots.size() == 1) {
+            try {
+                writeObjects(roots.getFirst(), success, config, now, cancellation, serials);
+            } catch (RuntimeException e) {
+                failures.put(roots.getFirst(), e);
+            }
+            return failures;
+        }
+        var writes = new LinkedHashMap<OutputRoot, Future<Path>>();
+        for (var root : roots) {
+            writes.put(root, rootWriters.submit(() -> writeObjects(root, success, config, now, cancellation, serials)));
+        }
+        writes.forEach((root, write) -> {
+            try {
+                Uninterruptibles.getUninterruptibly(write);
+            } catch (ExecutionException e) {
+                failures.put(root, e.getCause() instanceof RuntimeException cause ? cause : new RuntimeException(e.getCause()));
+            }
+        });
+        return failures;
+    }
+
+    private Path writeObjects(OutputRoot root, RrdpFetcher.SuccessfulFetch success, Config config, Instant now,
+                              Cancellation cancellation, ChangeFeed.Serials serials) {
+        try {
+            var published = root.write(config, success.objects(), success.digest(), now, cancellation, serials);
+            log.info("Wrote objects to {}", published);
+            return published;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return the exception to end the sync with: cancellation if that is all that happened, the failure of the root
+     * if only one root failed, otherwise an exception with all failures
+     */
+    private static RuntimeException writeFailure(Map<OutputRoot, RuntimeException> failures, int rootCount) {
+        var failed = failures.entrySet().stream()
+                .filter(failure -> !(failure.getValue() instanceof SyncCancelledException))
+                .toList();
+        if (failed.isEmpty()) {
+            return failures.values().iterator().next();
+        }
+        failed.forEach(failure -> log.error("Could not write objects to {}", failure.getKey().getPath(), failure.getValue()));
+        if (failed.size() == 1) {
+            return failed.getFirst().getValue();
+        }
+        var exception = new RuntimeException("Could not write objects to %d of %d rsync paths".formatted(failed.size(), rootCount),
+                failed.getFirst().getValue());
+        failed.stream().skip(1).forEach(failure -> exception.addSuppressed(failure.getValue()));
+        return exception;
+    }
+
+    /**
+     * @return the digest of the objects published in all roots, null if that differs between roots or is unknown
+     */
+    private String publishedDigest() {
+        var digests = outputRoots.stream().map(OutputRoot::getPublishedDigest).distinct().toList();
+        return digests.size() == 1 ? digests.getFirst() : null;
+    }
+
+    /**
+     * @return failure per rsync path of which the last write failed
+     */
+    private Map<String, String> rsyncPathFailures() {
+        var failures = new LinkedHashMap<String, String>();
+        outputRoots.stream()
+                .filter(root -> root.getFailure() != null)
+                .forEach(root -> failures.put(root.getPath().toString(), root.getFailure()));
+        return failures;
+    }
+
+    private void serialSeen(RrdpFetcher.NotificationXml notification, RrdpFetcher.FetchResult fetchResult, Instant at) {
+        if (notification != null) {
+            freshness.seen(notification.sessionId(), notification.serial(), at);
+        } else if (fetchResult instanceof RrdpFetcher.SuccessfulFetch success) {
+            // FOLLOWER mode: the leader's bundle
+            freshness.seen(success.sessionId(), success.serial(), at);
+        }
+    }
+
+    /**
+     * The objects of `success` are in the rsync repository now.
+     */
+    private void publish(RrdpFetcher.SuccessfulFetch success, Config config) {
+        state.setPublishedSerial(new State.PublishedSerial(success.sessionId(), success.serial()));
+        freshness.published(success.sessionId(), success.serial(), Instant.now());
+        if (config.syncMode() == SyncMode.LEADER) {
+            publication.set(success);
+        }
     }
 
     private void noUpdates(RrdpFetcher.NoUpdates noUpdates) {
+        if (noUpdates.stale()) {
+            // Counted as stale by the fetcher: nothing was fetched successfully
+            return;
+        }
         metrics.success(noUpdates.serial());
         log.info("Session id {} and serial {} have not changed since the last check, nothing to update",
                 noUpdates.sessionId(), noUpdates.serial());
     }
 
+    private void onPreempted(String reason) {
+        metrics.preempted();
+        log.info("Abandoned sync: {}", reason);
+    }
+
     private void onFailure(RrdpFetcher.FailedFetch failed) {
         metrics.failure();
         log.error("Failed to fetch RRDP:", failed.exception());
@@ -0,0 +1,75 @@
+package net.ripe.rpki.rsyncit.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs syncs on demand, next to the scheduled ones.
+ *
+ * Requests are coalesced: while a requested sync has not started yet, further requests share it, so a burst of
+ * requests results in at most one sync after the one that is running. A requested sync only counts as started once
+ * it holds the sync lock, not while it waits for a scheduled sync to finish.
+ */
+@Slf4j
+@Component
+public class SyncTrigger {
+    private final Sync sync;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(
+            Thread.ofPlatform().name("rsyncit-sync-trigger").daemon().factory());
+
+    // Requested sync that has not started yet, guarded by this
+    private CompletableFuture<SyncResult> pending;
+
+    @FunctionalInterface
+    interface Sync {
+        /**
+         * @param started to be called when the sync holds the sync lock, right before it starts
+         */
+        SyncResult run(Runnable started) throws Exception;
+    }
+
+    @Autowired
+    public SyncTrigger(SyncService syncService) {
+        this(syncService::syncNow);
+    }
+
+    SyncTrigger(Sync sync) {
+        this.sync = sync;
+    }
+
+    /**
+     * @return the result of a sync that starts after this call
+     */
+    public synchronized CompletableFuture<SyncResult> trigger() {
+        if (pending != null) {
+            return pending;
+        }
+        var next = new CompletableFuture<SyncResult>();
+        pending = next;
+        executor.execute(() -> {
+            try {
+                next.complete(sync.run(() -> {
+                    synchronized (this) {
+                        // Requests from now on need another sync
+                        pending = null;
+                    }
+                }));
+            } catch (Exception e) {
+                log.error("Requested sync failed", e);
+                synchronized (this) {
+                    // It may have failed before it started
+                    if (pending == next) {
+                        pending = null;
+                    }
+                }
+                next.completeExceptionally(e);
+            }
+        });
+        return next;
+    }
+}
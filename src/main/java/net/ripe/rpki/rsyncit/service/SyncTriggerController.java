@@ -0,0 +1,94 @@
+package net.ripe.rpki.rsyncit.service;
+
+import net.ripe.rpki.rsyncit.config.AppConfig;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Start a sync without waiting for the next scheduled run, e.g. after an incident. Only available when
+ * `syncTriggerToken` is set, requests have to send it as `Authorization: Bearer <token>`.
+ */
+@RestController
+public class SyncTriggerController {
+
+    private final SyncTrigger syncTrigger;
+    private final AppConfig appConfig;
+
+    @Autowired
+    public SyncTriggerController(SyncTrigger syncTrigger, AppConfig appConfig) {
+        this.syncTrigger = syncTrigger;
+        this.appConfig = appConfig;
+    }
+
+    /**
+     * @param wait           wait for the sync to finish and return its result
+     * @param timeoutSeconds maximum time to wait, the sync continues when it is over. Capped, see
+     *                       {@link #waitSeconds(long, Duration)}.
+     */
+    @PostMapping(value = "sync")
+    public ResponseEntity<TriggerResponse> sync(@RequestHeader(value = HttpHeaders.AUTHORIZATION, required = false) String authorization,
+                                                @RequestParam(value = "wait", defaultValue = "false") boolean wait,
+                                                @RequestParam(value = "timeoutSeconds", defaultValue = "300") long timeoutSeconds) throws InterruptedException {
+        var token = appConfig.getSyncTriggerToken();
+        if (token.isBlank()) {
+            return ResponseEntity.notFound().build();
+        }
+        if (!isAuthorized(authorization, token)) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+
+        var waitSeconds = waitSeconds(timeoutSeconds, appConfig.getRequestTimeout());
+        var result = syncTrigger.trigger();
+        if (!wait) {
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(new TriggerResponse(TriggerResponse.QUEUED, null, null));
+        }
+        try {
+            return ResponseEntity.ok(new TriggerResponse(TriggerResponse.FINISHED, result.get(waitSeconds, TimeUnit.SECONDS), null));
+        } catch (TimeoutException e) {
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(new TriggerResponse(TriggerResponse.RUNNING, null, null));
+        } catch (ExecutionException e) {
+            return ResponseEntity.internalServerError().body(new TriggerResponse(TriggerResponse.FAILED, null, e.getCause().getMessage()));
+        }
+    }
+
+    /**
+     * Every waiting request holds a servlet thread, so the time to wait is capped. Downloads take at most the request
+     * timeout, and parsing and writing take less time than that: twice the request timeout covers a sync that is not
+     * stuck.
+     */
+    static long waitSeconds(long timeoutSeconds, Duration requestTimeout) {
+        return Math.clamp(timeoutSeconds, 0, 2 * requestTimeout.toSeconds());
+    }
+
+    static boolean isAuthorized(String authorization, String token) {
+        if (authorization == null || !authorization.startsWith("Bearer ")) {
+            return false;
+        }
+        // Constant time comparison
+        return MessageDigest.isEqual(authorization.substring("Bearer ".length()).getBytes(StandardCharsets.UTF_8),
+            token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param status one of `queued`, `running` (waiting timed out), `finished` or `failed`
+     */
+    public record TriggerResponse(String status, SyncResult result, String error) {
+        static final String QUEUED = "queued";
+        static final String RUNNING = "running";
+        static final String FINISHED = "finished";
+        static final String FAILED = "failed";
+    }
+}
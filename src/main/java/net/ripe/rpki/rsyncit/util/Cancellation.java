@@ -0,0 +1,35 @@
+package net.ripe.rpki.rsyncit.util;
+
+/**
+ * Cooperative cancellation of a sync run.
+ *
+ * The fetcher and the writer call {@link #throwIfCancelled()} at phase and batch boundaries (and per object in the
+ * parallel loops, where it is a single volatile read). Work is never interrupted halfway through writing a file.
+ */
+public final class Cancellation {
+    private volatile String reason;
+
+    /**
+     * @return a cancellation that is only cancelled when someone holding it calls {@link #cancel(String)}
+     */
+    public static Cancellation none() {
+        return new Cancellation();
+    }
+
+    public void cancel(String reason) {
+        if (this.reason == null) {
+            this.reason = reason;
+        }
+    }
+
+    public boolean isCancelled() {
+        return reason != null;
+    }
+
+    public void throwIfCancelled() {
+        var r = reason;
+        if (r != null) {
+            throw new SyncCancelledException(r);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package net.ripe.rpki.rsyncit.util;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * The thread pools a sync runs on, instead of the common pool plus a new pool per write:
+ *
+ * - `cpu`: Base64 decoding, hashing and CMS parsing of the objects, sized to the number of cores by default;
+ * - `io`: blocking file system calls of the writer, its parallelism is set by the writer for every write phase (see
+ *   {@link net.ripe.rpki.rsyncit.rsync.WriteConcurrencyTuner}). One pool per rsync path, so that every path has its
+ *   own concurrency and a slow disk does not take the threads of the others.
+ *
+ * Downloads run on the Reactor Netty event loop, which is mostly waiting for the network.
+ *
+ * Both pools are long-lived, so their queue depth and utilization can be tracked as gauges. They are shut down by
+ * {@link #close()}.
+ */
+public final class ExecutionPools implements AutoCloseable {
+    private final ForkJoinPool cpu;
+    private final List<ForkJoinPool> io = new ArrayList<>();
+
+    public ExecutionPools(int cpuThreads, int ioThreads, MeterRegistry meterRegistry) {
+        this(cpuThreads, ioThreads, 1, meterRegistry);
+    }
+
+    /**
+     * @param ioPools number of io pools, the first is named `io`, the others `io-1`, `io-2`, etc.
+     */
+    public ExecutionPools(int cpuThreads, int ioThreads, int ioPools, MeterRegistry meterRegistry) {
+        this.cpu = new ForkJoinPool(cpuThreads, pool -> worker(pool, "rsyncit-cpu-"), null, false);
+        registerMetrics("cpu", cpu, meterRegistry);
+        for (int i = 0; i < ioPools; i++) {
+            var name = i == 0 ? "io" : "io-" + i;
+            var pool = new ForkJoinPool(ioThreads, p -> worker(p, "rsyncit-" + name + "-"), null, false);
+            registerMetrics(name, pool, meterRegistry);
+            io.add(pool);
+        }
+    }
+
+    public ForkJoinPool cpu() {
+        return cpu;
+    }
+
+    public ForkJoinPool io() {
+        return io.getFirst();
+    }
+
+    public ForkJoinPool io(int index) {
+        return io.get(index);
+    }
+
+    /**
+     * Shut down all pools without waiting for running tasks: these are interrupted, and a sync that is still running
+     * fails.
+     */
+    @Override
+    public void close() {
+        cpu.shutdownNow();
+        io.forEach(ForkJoinPool::shutdownNow);
+    }
+
+    private static ForkJoinWorkerThread worker(ForkJoinPool pool, String prefix) {
+        var thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName(prefix + thread.getPoolIndex());
+        return thread;
+    }
+
+    private static void registerMetrics(String name, ForkJoinPool pool, MeterRegistry meterRegistry) {
+        Gauge.builder("rsyncit.executor.queued", () -> pool.getQueuedSubmissionCount() + pool.getQueuedTaskCount())
+                .description("Tasks waiting to be executed by the pool")
+                .tag("pool", name)
+                .register(meterRegistry);
+        Gauge.builder("rsyncit.executor.active", pool::getActiveThreadCount)
+                .description("Threads of the pool that are executing or stealing tasks")
+                .tag("pool", name)
+                .register(meterRegistry);
+        Gauge.builder("rsyncit.executor.utilization", () -> (double) pool.getActiveThreadCount() / pool.getParallelism())
+                .description("Fraction of the threads of the pool that is active")
+                .tag("pool", name)
+                .register(meterRegistry);
+    }
+}
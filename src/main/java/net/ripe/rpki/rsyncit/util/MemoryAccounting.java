@@ -0,0 +1,161 @@
+package net.ripe.rpki.rsyncit.util;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Heap use of a sync and its phases, to size the heap and the pools from data:
+ *
+ * - allocated bytes: the sum of the allocation counters of the threads that take part in the sync (the thread running
+ *   the sync and the threads with a matching name). Threads that end during a phase are not counted;
+ * - peak heap: the sum of the peak usage of the heap pools, an upper bound because the pools do not peak at the same
+ *   time (eden peaks right before every young collection);
+ * - peak old generation: the peak usage of the old generation pool, the live data that has to fit. -1 if the collector
+ *   has no separate old generation pool.
+ *
+ * The peaks are measured by resetting the peak usage of the pools at the start of a phase, so phases of one sync must
+ * not overlap.
+ */
+public final class MemoryAccounting {
+    private final Predicate<String> participatingThread;
+    private final com.sun.management.ThreadMXBean threadBean;
+    private final List<MemoryPoolMXBean> heapPools;
+    private final List<MemoryPoolMXBean> oldGenPools;
+
+    private final MeterRegistry meterRegistry;
+    private final Map<String, DistributionSummary> allocated = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> peaks = new ConcurrentHashMap<>();
+
+    /**
+     * @param participatingThread names of the threads that do the work of a sync, besides the thread running it
+     */
+    public MemoryAccounting(Predicate<String> participatingThread, MeterRegistry meterRegistry) {
+        this.participatingThread = participatingThread;
+        this.meterRegistry = meterRegistry;
+        this.threadBean = ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean
+            && bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled() ? bean : null;
+        this.heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+            .filter(pool -> pool.getType() == MemoryType.HEAP)
+            .toList();
+        this.oldGenPools = heapPools.stream()
+            .filter(pool -> pool.getName().contains("Old") || pool.getName().contains("Tenured"))
+            .toList();
+    }
+
+    public record Usage(long allocatedBytes, long peakHeapBytes, long peakOldGenBytes) {
+    }
+
+    /**
+     * Start measuring a phase (or a whole sync) on the current thread.
+     */
+    public Measurement start() {
+        heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+        return new Measurement(allocatedPerThread());
+    }
+
+    public final class Measurement {
+        private final Map<Long, Long> allocatedAtStart;
+
+        private Measurement(Map<Long, Long> allocatedAtStart) {
+            this.allocatedAtStart = allocatedAtStart;
+        }
+
+        public Usage stop() {
+            return stop(List.of());
+        }
+
+        /**
+         * @param phases usage of the phases within this measurement: their peaks were reset since it started
+         */
+        public Usage stop(Collection<Usage> phases) {
+            long allocatedBytes = -1;
+            if (threadBean != null) {
+                allocatedBytes = 0;
+                for (var thread : allocatedPerThread().entrySet()) {
+                    allocatedBytes += thread.getValue() - allocatedAtStart.getOrDefault(thread.getKey(), 0L);
+                }
+            }
+            var peakHeap = peak(heapPools);
+            var peakOldGen = oldGenPools.isEmpty() ? -1 : peak(oldGenPools);
+            for (var phase : phases) {
+                peakHeap = Math.max(peakHeap, phase.peakHeapBytes());
+                peakOldGen = Math.max(peakOldGen, phase.peakOldGenBytes());
+            }
+            return new Usage(allocatedBytes, peakHeap, peakOldGen);
+        }
+    }
+
+    /**
+     * Export the usage of the phases of a sync.
+     */
+    public void record(Map<String, Usage> phases) {
+        phases.forEach((phase, usage) -> {
+            if (usage.allocatedBytes() >= 0) {
+                allocated.computeIfAbsent(phase, p -> DistributionSummary.builder("rsyncit.sync.allocated")
+                        .description("Bytes allocated on the heap by the threads of a sync")
+                        .baseUnit("bytes")
+                        .tag("phase", p)
+                        .register(meterRegistry))
+                    .record(usage.allocatedBytes());
+            }
+            peak(phase, "heap").set(usage.peakHeapBytes());
+            peak(phase, "old").set(usage.peakOldGenBytes());
+        });
+    }
+
+    private AtomicLong peak(String phase, String area) {
+        return peaks.computeIfAbsent(phase + "/" + area, key -> {
+            var value = new AtomicLong(-1);
+            Gauge.builder("rsyncit.sync.heap.peak", value::get)
+                .description("Peak heap usage during the last sync, -1 when not available")
+                .baseUnit("bytes")
+                .tag("phase", phase)
+                .tag("area", area)
+                .register(meterRegistry);
+            return value;
+        });
+    }
+
+    private static long peak(List<MemoryPoolMXBean> pools) {
+        return pools.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+    }
+
+    /**
+     * @return allocated bytes per thread id of the participating threads
+     */
+    private Map<Long, Long> allocatedPerThread() {
+        if (threadBean == null) {
+            return Map.of();
+        }
+        var current = Thread.currentThread().threadId();
+        var ids = new ArrayList<Long>();
+        for (var info : threadBean.getThreadInfo(threadBean.getAllThreadIds(), 0)) {
+            if (info != null && (info.getThreadId() == current || participatingThread.test(info.getThreadName()))) {
+                ids.add(info.getThreadId());
+            }
+        }
+        var threadIds = ids.stream().mapToLong(Long::longValue).toArray();
+        var bytes = threadBean.getThreadAllocatedBytes(threadIds);
+        var result = new HashMap<Long, Long>();
+        for (int i = 0; i < threadIds.length; i++) {
+            // -1 for threads that ended in the meantime
+            if (bytes[i] >= 0) {
+                result.put(threadIds[i], bytes[i]);
+            }
+        }
+        return result;
+    }
+}
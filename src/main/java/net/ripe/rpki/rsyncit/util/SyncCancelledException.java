@@ -0,0 +1,7 @@
+package net.ripe.rpki.rsyncit.util;
+
+public class SyncCancelledException extends RuntimeException {
+    public SyncCancelledException(final String reason) {
+        super(reason);
+    }
+}
@@ -0,0 +1,40 @@
+package net.ripe.rpki;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.ripe.rpki.rsyncit.util.MemoryAccounting;
+
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Measure heap allocation of a piece of code, using the allocation counters of the JVM for the current thread and the
+ * threads that do the work (the fetcher and the writer both do their work on pools).
+ *
+ * Only those threads are counted, like {@link MemoryAccounting} does for a sync, so the code under test should run on
+ * pools of its own (see {@link net.ripe.rpki.rsyncit.util.ExecutionPools}) instead of a shared pool.
+ */
+public class AllocationMeter {
+    /**
+     * @param workerThreads names of the threads that do the work, besides the current thread
+     */
+    public static long allocatedBytes(Predicate<String> workerThreads, ThrowingRunnable runnable) throws Exception {
+        var accounting = new MemoryAccounting(workerThreads, new SimpleMeterRegistry());
+        var measurement = accounting.start();
+        runnable.run();
+        var allocated = measurement.stop().allocatedBytes();
+        assumeTrue(allocated >= 0, "thread allocation counters are not available");
+        return allocated;
+    }
+
+    /**
+     * Budget in bytes, can be overridden with the system property `allocationBudget.<name>`.
+     */
+    public static long budget(String name, long defaultBytes) {
+        return Long.getLong("allocationBudget." + name, defaultBytes);
+    }
+
+    public interface ThrowingRunnable {
+        void run() throws Exception;
+    }
+}
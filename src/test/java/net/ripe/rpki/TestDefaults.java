@@ -1,6 +1,9 @@
 package net.ripe.rpki;
 
 import net.ripe.rpki.rsyncit.config.Config;
+import net.ripe.rpki.rsyncit.config.SyncMode;
+import net.ripe.rpki.rsyncit.rsync.WriteDurability;
+import net.ripe.rpki.rsyncit.rsync.WriteMode;
 import org.springframework.web.reactive.function.client.WebClient;
 
 import java.nio.file.Paths;
@@ -15,7 +18,14 @@ public class TestDefaults {
                 Paths.get("/tmp/rsync"),
                 "0 0/10 * * * ?",
                 Duration.of(1, ChronoUnit.MINUTES),
-                3600_000, 10, 0, false);
+                3600_000, 10, 0, false,
+                1, 16 * 1024 * 1024,
+                false, WriteDurability.NONE,
+                WriteMode.NEW_DIRECTORY, Duration.ZERO,
+                Duration.ZERO, 0,
+                null, 0,
+                SyncMode.STANDALONE, "", false,
+                false, 0);
     }
 
     public static WebClient defaultWebClient() {
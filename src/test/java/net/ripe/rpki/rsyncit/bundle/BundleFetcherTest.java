@@ -0,0 +1,155 @@
+package net.ripe.rpki.rsyncit.bundle;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import net.ripe.rpki.TestDefaults;
+import net.ripe.rpki.rsyncit.config.Config;
+import net.ripe.rpki.rsyncit.rrdp.ObjectPathTrie;
+import net.ripe.rpki.rsyncit.rrdp.ObjectSetDigest;
+import net.ripe.rpki.rsyncit.rrdp.RpkiObject;
+import net.ripe.rpki.rsyncit.rrdp.RrdpFetcher;
+import net.ripe.rpki.rsyncit.rrdp.State;
+import net.ripe.rpki.rsyncit.util.Sha256;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BundleFetcherTest {
+    // Larger than the 256 KiB that WebClient buffers by default: the bundle has to be streamed
+    static final int OBJECT_COUNT = 500;
+    static final int OBJECT_SIZE = 4_096;
+
+    private final RrdpFetcher.SuccessfulFetch publication = publication();
+    private final byte[] bundle = write(publication);
+    private volatile int bytesToSend = bundle.length;
+    private volatile Duration stallAfterSending = Duration.ZERO;
+    private volatile String ifNoneMatch;
+    // Ends a stalled response when the test is done
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private HttpServer server;
+
+    @BeforeEach
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/bundle", this::bundle);
+        server.start();
+    }
+
+    @AfterEach
+    public void stopServer() {
+        stopped.countDown();
+        server.stop(0);
+    }
+
+    @Test
+    public void testStreamsBundle() {
+        var result = new BundleFetcher(config(), TestDefaults.defaultWebClient(), new State()).fetchObjects();
+
+        assertThat(result).isInstanceOfSatisfying(RrdpFetcher.SuccessfulFetch.class, fetched -> {
+            assertThat(fetched.sessionId()).isEqualTo("session");
+            assertThat(fetched.serial()).isEqualTo(42);
+            assertThat(fetched.digest()).isEqualTo(publication.digest());
+            assertThat(fetched.objects()).hasSize(OBJECT_COUNT);
+            assertThat(fetched.objects().getLast().bytes()).isEqualTo(publication.objects().getLast().bytes());
+        });
+    }
+
+    @Test
+    public void testNotModified() {
+        var state = new State();
+        state.setRrdpState(new State.RrdpState("session", 42));
+        state.setPublishedDigest(publication.digest());
+
+        var result = new BundleFetcher(config(), TestDefaults.defaultWebClient(), state).fetchObjects();
+
+        assertThat(result).isEqualTo(new RrdpFetcher.NoUpdates("session", 42));
+        assertThat(ifNoneMatch).isEqualTo("\"" + publication.digest() + "\"");
+    }
+
+    @Test
+    public void testTruncatedBundleFails() {
+        bytesToSend = bundle.length / 2;
+
+        var result = new BundleFetcher(config(), TestDefaults.defaultWebClient(), new State()).fetchObjects();
+
+        assertThat(result).isInstanceOf(RrdpFetcher.FailedFetch.class);
+    }
+
+    @Test
+    public void testTimeoutAppliesToTheWholeDownload() {
+        // the headers and half of the bundle arrive in time, the rest does not
+        bytesToSend = bundle.length / 2;
+        stallAfterSending = Duration.ofSeconds(5);
+
+        var start = System.nanoTime();
+        var result = new BundleFetcher(config().withRequestTimeout(Duration.ofMillis(500)), TestDefaults.defaultWebClient(), new State())
+            .fetchObjects();
+
+        assertThat(result).isInstanceOf(RrdpFetcher.Timeout.class);
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(4));
+    }
+
+    private void bundle(HttpExchange exchange) throws IOException {
+        ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        if (("\"" + publication.digest() + "\"").equals(ifNoneMatch)) {
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+        // chunked, so that sending less than the bundle ends the response instead of leaving the client waiting
+        exchange.sendResponseHeaders(200, 0);
+        try (var body = exchange.getResponseBody()) {
+            body.write(bundle, 0, bytesToSend);
+            body.flush();
+            stopped.await(stallAfterSending.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // the client went away
+        }
+    }
+
+    private Config config() {
+        return TestDefaults.defaultConfig()
+            .withLeaderUrl("http://localhost:" + server.getAddress().getPort() + "/bundle")
+            .withRequestTimeout(Duration.ofSeconds(10));
+    }
+
+    private static RrdpFetcher.SuccessfulFetch publication() {
+        var random = new Random(0);
+        var paths = new ObjectPathTrie();
+        var digest = new ObjectSetDigest();
+        var modificationTime = Instant.parse("2024-01-01T10:00:00Z");
+        var objects = IntStream.range(0, OBJECT_COUNT).mapToObj(i -> {
+            var path = paths.intern("rsync://bla.net/repository/object-" + i + ".cer");
+            var bytes = new byte[OBJECT_SIZE];
+            random.nextBytes(bytes);
+            digest.add(ObjectSetDigest.element(path, Sha256.asString(bytes), modificationTime));
+            return new RpkiObject(path, bytes, modificationTime);
+        }).toList();
+        return new RrdpFetcher.SuccessfulFetch(objects, "session", 42, digest.value());
+    }
+
+    private static byte[] write(RrdpFetcher.SuccessfulFetch publication) {
+        var out = new ByteArrayOutputStream();
+        try {
+            PublicationBundle.write(publication, out);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,106 @@
+package net.ripe.rpki.rsyncit.bundle;
+
+import net.ripe.rpki.rsyncit.rrdp.ObjectPathTrie;
+import net.ripe.rpki.rsyncit.rrdp.ObjectSetDigest;
+import net.ripe.rpki.rsyncit.rrdp.RpkiObject;
+import net.ripe.rpki.rsyncit.rrdp.RrdpFetcher;
+import net.ripe.rpki.rsyncit.util.Sha256;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PublicationBundleTest {
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        var publication = publication("rsync://bla.net/path1/a.cer", "rsync://bla.net/path1/nested/b.mft");
+
+        var read = PublicationBundle.read(new ByteArrayInputStream(write(publication)));
+
+        assertThat(read.sessionId()).isEqualTo(publication.sessionId());
+        assertThat(read.serial()).isEqualTo(publication.serial());
+        assertThat(read.digest()).isEqualTo(publication.digest());
+        assertThat(read.objects()).hasSize(2);
+        for (int i = 0; i < 2; i++) {
+            var expected = publication.objects().get(i);
+            var actual = read.objects().get(i);
+            assertThat(actual.path().toString()).isEqualTo(expected.path().toString());
+            assertThat(actual.bytes()).isEqualTo(expected.bytes());
+            assertThat(actual.modificationTime()).isEqualTo(expected.modificationTime());
+        }
+    }
+
+    @Test
+    public void testSkipsObjectsOutsideOfTheirHost() throws IOException {
+        var publication = publication("rsync://bla.net/path1/a.cer", "rsync://../published/bla.net/path1/a.cer",
+            "rsync://bla.net:873/path1/b.cer", "rsync://user@bla.net/path1/c.cer", "rsync://bla.net/path1/../../d.cer");
+
+        var read = PublicationBundle.read(new ByteArrayInputStream(write(publication)));
+
+        assertThat(read.digest()).isEqualTo(publication.digest());
+        assertThat(read.objects()).extracting(object -> object.path().toString()).containsExactly("rsync://bla.net/path1/a.cer");
+    }
+
+    @Test
+    public void testRejectsRelativeUrls() throws IOException {
+        var bytes = write(publication("rsync://bla.net/path1/a.cer"));
+        var bundle = new String(bytes, StandardCharsets.ISO_8859_1).replace("rsync://", "rsync:__");
+
+        assertThatThrownBy(() -> PublicationBundle.read(new ByteArrayInputStream(bundle.getBytes(StandardCharsets.ISO_8859_1))))
+            .isInstanceOf(IOException.class)
+            .hasMessageContaining("Invalid URL");
+    }
+
+    @Test
+    public void testRejectsTruncatedBundle() throws IOException {
+        var bytes = write(publication("rsync://bla.net/path1/a.cer"));
+
+        assertThatThrownBy(() -> PublicationBundle.read(new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length - 3))))
+            .isInstanceOf(IOException.class);
+    }
+
+    @Test
+    public void testRejectsModifiedContent() throws IOException {
+        var bytes = write(publication("rsync://bla.net/path1/a.cer"));
+        bytes[bytes.length - 1] ^= 1;
+
+        assertThatThrownBy(() -> PublicationBundle.read(new ByteArrayInputStream(bytes)))
+            .isInstanceOf(IOException.class)
+            .hasMessageContaining("Digest");
+    }
+
+    @Test
+    public void testRejectsOtherContent() {
+        assertThatThrownBy(() -> PublicationBundle.read(new ByteArrayInputStream("<notification/>".getBytes())))
+            .isInstanceOf(IOException.class)
+            .hasMessage("Not a publication bundle");
+    }
+
+    private static byte[] write(RrdpFetcher.SuccessfulFetch publication) throws IOException {
+        var out = new ByteArrayOutputStream();
+        PublicationBundle.write(publication, out);
+        return out.toByteArray();
+    }
+
+    private static RrdpFetcher.SuccessfulFetch publication(String... urls) {
+        var paths = new ObjectPathTrie();
+        var digest = new ObjectSetDigest();
+        var objects = Arrays.stream(urls).map(url -> {
+            var path = paths.intern(url);
+            var bytes = url.getBytes();
+            var modificationTime = Instant.parse("2024-01-01T10:00:00Z");
+            digest.add(ObjectSetDigest.element(path, Sha256.asString(bytes), modificationTime));
+            return new RpkiObject(path, bytes, modificationTime);
+        }).toList();
+        return new RrdpFetcher.SuccessfulFetch(List.copyOf(objects), "session", 42, digest.value());
+    }
+}
@@ -2,6 +2,8 @@ package net.ripe.rpki.rsyncit.config;
 
 import org.junit.jupiter.api.Test;
 
+import java.nio.file.Path;
+
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
@@ -25,4 +27,14 @@ class AppConfigTest {
             .apply("https://host1.bla.net/notification.xml"))
             .isEqualTo("https://host2.bla.net/notification.xml");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testRsyncPaths() {
+        assertThat(AppConfig.rsyncPaths("/tmp/rsync")).containsExactly(Path.of("/tmp/rsync"));
+        assertThat(AppConfig.rsyncPaths("/data1/rsync, /data2/rsync,")).containsExactly(Path.of("/data1/rsync"), Path.of("/data2/rsync"));
+
+        assertThrows(IllegalArgumentException.class, () -> AppConfig.rsyncPaths(" , "));
+        assertThrows(IllegalArgumentException.class, () -> AppConfig.rsyncPaths("/data1/rsync,/data1/rsync/"));
+        assertThrows(IllegalArgumentException.class, () -> AppConfig.rsyncPaths("/data1/rsync,/data1/rsync/nested"));
+    }
+}
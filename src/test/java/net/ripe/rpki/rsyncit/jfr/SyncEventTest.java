@@ -0,0 +1,86 @@
+package net.ripe.rpki.rsyncit.jfr;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SyncEventTest {
+
+    @Test
+    public void testRecordsNoUpdatesSync(@TempDir Path tmp) throws IOException {
+        var events = record(tmp, () -> {
+            var event = new SyncEvent();
+            event.begin();
+            event.fetched("a5f1b2c3", 42, 0);
+            event.outcome(SyncEvent.NO_UPDATES);
+            event.commit();
+        });
+
+        assertThat(events).singleElement().satisfies(event -> {
+            assertThat(event.getEventType().getName()).isEqualTo("net.ripe.rpki.rsyncit.Sync");
+            assertThat(event.getString("sessionId")).isEqualTo("a5f1b2c3");
+            assertThat(event.getLong("serial")).isEqualTo(42);
+            assertThat(event.getInt("objectCount")).isZero();
+            assertThat(event.getString("outcome")).isEqualTo(SyncEvent.NO_UPDATES);
+        });
+    }
+
+    @Test
+    public void testRecordsUnknownSerialAsMinusOne(@TempDir Path tmp) throws IOException {
+        var events = record(tmp, () -> {
+            var event = new SyncEvent();
+            event.begin();
+            event.fetched(null, null, 0);
+            event.outcome(SyncEvent.FAILED);
+            event.commit();
+        });
+
+        assertThat(events).singleElement().satisfies(event -> {
+            assertThat(event.getString("sessionId")).isNull();
+            assertThat(event.getLong("serial")).isEqualTo(-1);
+            assertThat(event.getString("outcome")).isEqualTo(SyncEvent.FAILED);
+        });
+    }
+
+    @Test
+    public void testRecordsPhaseWithObjectCount(@TempDir Path tmp) throws IOException {
+        var events = record(tmp, () -> {
+            var event = SyncPhaseEvent.start(SyncPhaseEvent.WRITE);
+            event.objectCount(1234);
+            event.commit();
+        });
+
+        assertThat(events).singleElement().satisfies(event -> {
+            assertThat(event.getEventType().getName()).isEqualTo("net.ripe.rpki.rsyncit.SyncPhase");
+            assertThat(event.getString("phase")).isEqualTo(SyncPhaseEvent.WRITE);
+            assertThat(event.getInt("objectCount")).isEqualTo(1234);
+        });
+    }
+
+    /**
+     * Record only the rsyncit events (without threshold, so that the events of the test are not dropped for being too
+     * short) while running the action, and read them back from the dump.
+     */
+    private static List<RecordedEvent> record(Path tmp, Runnable action) throws IOException {
+        var dump = tmp.resolve("recording.jfr");
+        try (var recording = new Recording()) {
+            recording.enable("net.ripe.rpki.rsyncit.Sync").withoutThreshold();
+            recording.enable("net.ripe.rpki.rsyncit.SyncPhase").withoutThreshold();
+            recording.start();
+            action.run();
+            recording.stop();
+            recording.dump(dump);
+        }
+        return RecordingFile.readAllEvents(dump).stream()
+                .filter(event -> event.getEventType().getName().startsWith("net.ripe.rpki.rsyncit."))
+                .toList();
+    }
+}
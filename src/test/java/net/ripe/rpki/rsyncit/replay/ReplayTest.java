@@ -0,0 +1,67 @@
+package net.ripe.rpki.rsyncit.replay;
+
+import net.ripe.rpki.rsyncit.rsync.RsyncWriter;
+import net.ripe.rpki.rsyncit.rsync.WriteMode;
+import net.ripe.rpki.rsyncit.util.Sha256;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ReplayTest {
+
+    @Test
+    public void testParseOptions() {
+        var options = Replay.Options.parse(new String[]{"--notification=file:///tmp/rrdp/notification.xml", "--target=/tmp/out",
+            "--repeat=3", "--write-mode=NEW_DIRECTORY,IN_PLACE", "--write-concurrency=1,8", "--off-heap"});
+        assertThat(options.notification()).isEqualTo(Path.of("/tmp/rrdp/notification.xml"));
+        assertThat(options.repeat()).isEqualTo(3);
+        assertThat(options.writeModes()).containsExactly(WriteMode.NEW_DIRECTORY, WriteMode.IN_PLACE);
+        assertThat(options.writeConcurrency()).containsExactly(1, 8);
+        assertThat(options.offHeap()).isTrue();
+        // the snapshot is looked for next to the notification
+        assertThat(options.snapshotFor("https://rrdp.example.net/session/1/abc/snapshot.xml"))
+            .isEqualTo(Path.of("/tmp/rrdp/snapshot.xml"));
+        assertThat(options.snapshotFor("file:///data/snapshot-1.xml")).isEqualTo(Path.of("/data/snapshot-1.xml"));
+
+        assertThrows(IllegalArgumentException.class, () -> Replay.Options.parse(new String[]{"--target=/tmp/out"}));
+        assertThrows(IllegalArgumentException.class, () -> Replay.Options.parse(new String[]{"--notification=n.xml", "--target=/tmp/out", "--repeat=0"}));
+        assertThrows(IllegalArgumentException.class, () -> Replay.Options.parse(new String[]{"--notification=n.xml", "--target=/tmp/out", "--bla"}));
+    }
+
+    @Test
+    public void testReplay(@TempDir Path tmpPath) throws Exception {
+        var snapshot = """
+            <snapshot xmlns="http://www.ripe.net/rpki/rrdp" version="1" session_id="1c33ba5d-4e16-448d-9a22-b12599ef1cba" serial="1">
+            </snapshot>
+            """;
+        var notification = """
+            <notification xmlns="http://www.ripe.net/rpki/rrdp" version="1" session_id="1c33ba5d-4e16-448d-9a22-b12599ef1cba" serial="1">
+            <snapshot uri="https://rrdp.example.net/1c33ba5d-4e16-448d-9a22-b12599ef1cba/1/snapshot.xml" hash="%s"/>
+            </notification>
+            """.formatted(Sha256.asString(snapshot));
+        Files.writeString(tmpPath.resolve("snapshot.xml"), snapshot);
+        Files.writeString(tmpPath.resolve("notification.xml"), notification);
+
+        var options = Replay.Options.parse(new String[]{"--notification=" + tmpPath.resolve("notification.xml"),
+            "--target=" + tmpPath.resolve("out"), "--repeat=2", "--write-mode=NEW_DIRECTORY,IN_PLACE", "--write-concurrency=1,2"});
+        var output = new ByteArrayOutputStream();
+        var results = Replay.run(options, new PrintStream(output, true, StandardCharsets.UTF_8));
+
+        assertThat(results).hasSize(8);
+        assertThat(results).extracting(Replay.RunResult::run).containsExactly(1, 2, 1, 2, 1, 2, 1, 2);
+        assertThat(output.toString(StandardCharsets.UTF_8).lines()).hasSize(9);
+        for (var directory : List.of("new_directory-1", "new_directory-2", "in_place-1", "in_place-2")) {
+            assertThat(tmpPath.resolve("out").resolve(directory).resolve("published")).exists();
+        }
+        assertThat(tmpPath.resolve("out/in_place-1").resolve(RsyncWriter.IN_PLACE_DIRECTORY)).isDirectory();
+    }
+}
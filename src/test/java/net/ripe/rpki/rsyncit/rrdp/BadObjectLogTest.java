@@ -0,0 +1,51 @@
+package net.ripe.rpki.rsyncit.rrdp;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BadObjectLogTest {
+
+    @Test
+    public void testLimitsDetailsPerRun() {
+        var subject = new BadObjectLog();
+        var formatted = new AtomicInteger();
+        var run = subject.newRun();
+
+        var logged = IntStream.range(0, 3 * BadObjectLog.DETAILS_PER_RUN)
+            .filter(i -> {
+                run.count(BadObjectLog.Failure.NO_TIMESTAMP);
+                return run.detail(BadObjectLog.Failure.NO_TIMESTAMP, "hash-" + i, () -> "object " + formatted.incrementAndGet(), null);
+            })
+            .count();
+        assertThat(logged).isEqualTo(BadObjectLog.DETAILS_PER_RUN);
+        assertThat(run.total(BadObjectLog.Failure.NO_TIMESTAMP)).isEqualTo(3 * BadObjectLog.DETAILS_PER_RUN);
+        assertThat(run.total(BadObjectLog.Failure.DECODE)).isZero();
+        // The limit is per failure
+        assertThat(run.detail(BadObjectLog.Failure.DECODE, "other", () -> "other", null)).isTrue();
+
+        // Objects that were not logged in the first run are logged in the next one
+        var next = subject.newRun();
+        assertThat(next.detail(BadObjectLog.Failure.NO_TIMESTAMP, "hash-" + BadObjectLog.DETAILS_PER_RUN, () -> "again", null)).isTrue();
+    }
+
+    @Test
+    public void testDoesNotLogTheSameObjectAgain() {
+        var subject = new BadObjectLog();
+        assertThat(subject.newRun().detail(BadObjectLog.Failure.DECODE, "hash", () -> "bad", null)).isTrue();
+        assertThat(subject.newRun().detail(BadObjectLog.Failure.DECODE, "hash", () -> "bad", null)).isFalse();
+        assertThat(subject.newRun().detail(BadObjectLog.Failure.NO_TIMESTAMP, "hash", () -> "bad", null)).isFalse();
+    }
+
+    @Test
+    public void testTruncate() {
+        assertThat(BadObjectLog.truncate("abc")).isEqualTo("abc");
+        var content = "a".repeat(BadObjectLog.MAXIMUM_CONTENT_LENGTH + 10);
+        assertThat(BadObjectLog.truncate(content))
+            .startsWith("a".repeat(BadObjectLog.MAXIMUM_CONTENT_LENGTH))
+            .endsWith("... (%d characters)".formatted(content.length()));
+    }
+}
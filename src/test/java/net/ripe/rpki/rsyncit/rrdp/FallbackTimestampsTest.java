@@ -0,0 +1,46 @@
+package net.ripe.rpki.rsyncit.rrdp;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FallbackTimestampsTest {
+
+    @Test
+    public void testUsesManifestInSameDirectory() {
+        var paths = new ObjectPathTrie();
+        var t0 = Instant.parse("2024-01-01T10:00:00Z");
+        var snapshotLastModified = Instant.parse("2024-01-02T12:00:00Z");
+        var parsed = List.of(
+            parsed(paths.intern("rsync://bla.net/ca1/a.mft"), t0),
+            parsed(paths.intern("rsync://bla.net/ca1/b.gbr"), null),
+            parsed(paths.intern("rsync://bla.net/ca2/c.gbr"), null),
+            // a manifest in a subdirectory does not count
+            parsed(paths.intern("rsync://bla.net/ca2/sub/d.mft"), t0.plusSeconds(60))
+        );
+
+        var subject = new FallbackTimestamps(parsed, Optional.of(snapshotLastModified));
+        assertThat(subject.get(paths.intern("rsync://bla.net/ca1/b.gbr"))).isEqualTo(t0);
+        assertThat(subject.get(paths.intern("rsync://bla.net/ca2/c.gbr"))).isEqualTo(snapshotLastModified);
+    }
+
+    @Test
+    public void testLatestManifestIfThereAreMore() {
+        var t0 = Instant.parse("2024-01-01T10:00:00Z");
+        var paths = new ObjectPathTrie();
+        var parsed = List.of(
+            parsed(paths.intern("rsync://bla.net/ca1/b.gbr"), null),
+            parsed(paths.intern("rsync://bla.net/ca1/a.mft"), t0),
+            parsed(paths.intern("rsync://bla.net/ca1/old.mft"), t0.minusSeconds(3600))
+        );
+        assertThat(new FallbackTimestamps(parsed, Optional.empty()).get(paths.intern("rsync://bla.net/ca1/b.gbr"))).isEqualTo(t0);
+    }
+
+    private static RrdpFetcher.ParsedObject parsed(ObjectPath path, Instant modificationTime) {
+        return new RrdpFetcher.ParsedObject(new RpkiObject(path, new byte[]{1}, modificationTime), "hash", null);
+    }
+}
@@ -0,0 +1,73 @@
+package net.ripe.rpki.rsyncit.rrdp;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ObjectContentArenaTest {
+    private final Random random = new Random();
+
+    @Test
+    public void testStoresContent() {
+        try (var arena = new ObjectContentArena()) {
+            var contents = IntStream.range(0, 1000).mapToObj(i -> someBytes(random.nextInt(4096))).toList();
+            var stored = contents.parallelStream().map(arena::store).toList();
+
+            for (int i = 0; i < contents.size(); i++) {
+                assertThat(stored.get(i).size()).isEqualTo(contents.get(i).length);
+                assertThat(stored.get(i).toByteArray()).isEqualTo(contents.get(i));
+            }
+            // all of these fit in one slab
+            assertThat(arena.allocatedBytes()).isEqualTo(ObjectContentArena.SLAB_SIZE);
+        }
+    }
+
+    @Test
+    public void testLargeObjectsGetTheirOwnSegment() {
+        try (var arena = new ObjectContentArena()) {
+            var small = arena.store(someBytes(100));
+            var large = someBytes((int) ObjectContentArena.LARGE_OBJECT_SIZE + 1);
+            var stored = arena.store(large);
+
+            assertThat(stored.toByteArray()).isEqualTo(large);
+            assertThat(small.size()).isEqualTo(100);
+            assertThat(arena.allocatedBytes()).isEqualTo(ObjectContentArena.SLAB_SIZE + large.length);
+        }
+    }
+
+    @Test
+    public void testWritesFile(@TempDir Path tmpPath) throws Exception {
+        try (var arena = new ObjectContentArena()) {
+            arena.store(someBytes(10));
+            var bytes = someBytes(5000);
+            var file = tmpPath.resolve("a.cer");
+            Files.write(file, someBytes(8000));
+
+            arena.store(bytes).writeTo(file);
+
+            assertThat(Files.readAllBytes(file)).isEqualTo(bytes);
+        }
+    }
+
+    @Test
+    public void testContentIsNotAccessibleAfterClose() {
+        var arena = new ObjectContentArena();
+        var stored = arena.store(someBytes(10));
+        arena.close();
+
+        assertThatThrownBy(stored::toByteArray).isInstanceOf(IllegalStateException.class);
+    }
+
+    private byte[] someBytes(int size) {
+        var bytes = new byte[size];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+}
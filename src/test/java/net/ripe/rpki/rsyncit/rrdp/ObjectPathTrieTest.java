@@ -0,0 +1,86 @@
+package net.ripe.rpki.rsyncit.rrdp;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ObjectPathTrieTest {
+
+    private final ObjectPathTrie subject = new ObjectPathTrie();
+
+    @Test
+    public void testInternSharesPrefixes() {
+        var a = subject.intern("rsync://bla.net/repo/ca1/a.cer");
+        var b = subject.intern("rsync://bla.net/repo/ca1/b.roa");
+        var c = subject.intern("rsync://other.net/repo/ca1/a.cer");
+
+        assertThat(a.parent()).isSameAs(b.parent());
+        assertThat(a.parent()).isNotSameAs(c.parent());
+        assertThat(a.host()).isEqualTo("bla.net");
+        assertThat(c.host()).isEqualTo("other.net");
+        assertThat(a.relativePath()).isEqualTo("repo/ca1/a.cer");
+        assertThat(a.toUri()).isEqualTo(URI.create("rsync://bla.net/repo/ca1/a.cer"));
+    }
+
+    @Test
+    public void testInternIsIdempotentWithDenseLeafIndices() {
+        var a = subject.intern("rsync://bla.net/repo/a.cer");
+        var b = subject.intern("rsync://bla.net/repo/b.cer");
+
+        assertThat(subject.intern("rsync://bla.net/repo/a.cer")).isSameAs(a);
+        assertThat(subject.leafCount()).isEqualTo(2);
+        assertThat(a.leafIndex()).isNotEqualTo(b.leafIndex()).isBetween(0, 1);
+        assertThat(b.leafIndex()).isBetween(0, 1);
+        // directories are not leaves
+        assertThat(a.parent().leafIndex()).isEqualTo(-1);
+    }
+
+    @Test
+    public void testInternNormalisesPaths() {
+        var a = subject.intern("rsync://bla.net/path1/a.cer");
+        assertThat(subject.intern("rsync://bla.net/path1/path2/../a.cer")).isSameAs(a);
+        assertThat(subject.intern("rsync://bla.net/./path1//a.cer")).isSameAs(a);
+        assertThat(subject.intern("rsync://bla.net/path1/a%2Ecer")).isSameAs(a);
+    }
+
+    @Test
+    public void testPathsEscapingTheHost() {
+        var escaping = subject.intern("rsync://bla.net/path1/../../PATH_INJECTION.txt");
+        assertThat(escaping.escapesHost()).isTrue();
+        assertThat(escaping.leafIndex()).isEqualTo(-1);
+        assertThat(escaping.toString()).isEqualTo("rsync://bla.net/path1/../../PATH_INJECTION.txt");
+
+        assertThat(subject.intern("rsync://bla.net/").escapesHost()).isTrue();
+        assertThat(subject.intern("rsync://bla.net/path1/path2/../NOT_REALLY_PATH_INJECTION.txt").escapesHost()).isFalse();
+        assertThat(subject.leafCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testHostsThatAreNotHostNames() {
+        var parent = subject.intern("rsync://../published/bla.net/evil.cer");
+        assertThat(parent.escapesHost()).isTrue();
+        assertThat(parent.leafIndex()).isEqualTo(-1);
+        assertThat(parent.toString()).isEqualTo("rsync://../published/bla.net/evil.cer");
+
+        assertThat(subject.intern("rsync://./a.cer").escapesHost()).isTrue();
+        assertThat(subject.intern("rsync://bla.net:873/a.cer").escapesHost()).isTrue();
+        assertThat(subject.intern("rsync://user@bla.net/a.cer").escapesHost()).isTrue();
+        assertThat(subject.intern("rsync://bla.net\\..\\other/a.cer").escapesHost()).isTrue();
+        assertThat(subject.intern("rsync://[::1]/a.cer").escapesHost()).isTrue();
+        assertThat(subject.intern("rsync://bla%2Enet/a.cer").escapesHost()).isTrue();
+        assertThat(subject.leafCount()).isZero();
+
+        var valid = subject.intern("rsync://rpki-repo_1.bla.net/a.cer");
+        assertThat(valid.escapesHost()).isFalse();
+        assertThat(valid.host()).isEqualTo("rpki-repo_1.bla.net");
+    }
+
+    @Test
+    public void testRejectsRelativeUris() {
+        assertThatThrownBy(() -> subject.intern("bla.net/a.cer")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> subject.intern("rsync:///a.cer")).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,47 @@
+package net.ripe.rpki.rsyncit.rrdp;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ObjectSetDigestTest {
+    private final ObjectPathTrie paths = new ObjectPathTrie();
+    private final Instant t0 = Instant.ofEpochMilli(1_700_000_000_000L);
+
+    @Test
+    public void testOrderIndependent() {
+        var a = ObjectSetDigest.element(paths.intern("rsync://bla.net/a.cer"), "aa", t0);
+        var b = ObjectSetDigest.element(paths.intern("rsync://bla.net/b.cer"), "bb", t0);
+        var c = ObjectSetDigest.element(paths.intern("rsync://bla.net/c.cer"), "cc", t0);
+
+        assertThat(digest(List.of(a, b, c))).isEqualTo(digest(List.of(c, a, b)));
+    }
+
+    @Test
+    public void testSensitiveToEveryComponent() {
+        var path = paths.intern("rsync://bla.net/a.cer");
+        var base = digest(List.of(ObjectSetDigest.element(path, "aa", t0)));
+
+        assertThat(digest(List.of(ObjectSetDigest.element(paths.intern("rsync://bla.net/b.cer"), "aa", t0)))).isNotEqualTo(base);
+        assertThat(digest(List.of(ObjectSetDigest.element(path, "ab", t0)))).isNotEqualTo(base);
+        assertThat(digest(List.of(ObjectSetDigest.element(path, "aa", t0.plusSeconds(1))))).isNotEqualTo(base);
+        assertThat(digest(List.of())).isNotEqualTo(base);
+    }
+
+    @Test
+    public void testDuplicatesDoNotCancelOut() {
+        var a = ObjectSetDigest.element(paths.intern("rsync://bla.net/a.cer"), "aa", t0);
+        var b = ObjectSetDigest.element(paths.intern("rsync://bla.net/b.cer"), "bb", t0);
+
+        assertThat(digest(List.of(a, a, b))).isNotEqualTo(digest(List.of(b)));
+    }
+
+    private static String digest(List<ObjectSetDigest.Element> elements) {
+        var digest = new ObjectSetDigest();
+        elements.forEach(digest::add);
+        return digest.value();
+    }
+}
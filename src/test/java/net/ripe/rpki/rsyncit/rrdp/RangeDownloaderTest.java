@@ -0,0 +1,193 @@
+package net.ripe.rpki.rsyncit.rrdp;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.ripe.rpki.TestDefaults;
+import net.ripe.rpki.rsyncit.util.Sha256;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RangeDownloaderTest {
+    private static final String SNAPSHOT = """
+        <snapshot xmlns="http://www.ripe.net/rpki/rrdp" version="1" session_id="1c33ba5d-4e16-448d-9a22-b12599ef1cba" serial="42">
+        </snapshot>
+        """;
+    private static final String LAST_MODIFIED = "Mon, 01 Jan 2024 10:00:00 GMT";
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d+)");
+
+    private final byte[] content = SNAPSHOT.getBytes(StandardCharsets.UTF_8);
+    // If-Range header of every range request, "" when it was not sent
+    private final List<String> ifRange = new CopyOnWriteArrayList<>();
+    private final AtomicInteger failuresToInject = new AtomicInteger();
+    private volatile String etag = "\"v1\"";
+    private volatile boolean honourRanges = true;
+    private HttpServer server;
+
+    @BeforeEach
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/snapshot.xml", this::snapshot);
+        server.createContext("/notification.xml", exchange -> send(exchange, 200, notification().getBytes(StandardCharsets.UTF_8)));
+        server.start();
+    }
+
+    @AfterEach
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testDownloadsRanges() {
+        var downloaded = new RangeDownloader(TestDefaults.defaultWebClient(), 3, 1).download(url("/snapshot.xml"), Duration.ofSeconds(10));
+
+        assertThat(downloaded).hasValueSatisfying(d -> assertThat(d.content()).isEqualTo(content));
+        assertThat(ifRange).containsExactly("\"v1\"", "\"v1\"", "\"v1\"");
+    }
+
+    @Test
+    public void testDoesNotSendWeakETagInIfRange() {
+        etag = "W/\"v1\"";
+
+        var downloaded = new RangeDownloader(TestDefaults.defaultWebClient(), 2, 1).download(url("/snapshot.xml"), Duration.ofSeconds(10));
+
+        assertThat(downloaded).hasValueSatisfying(d -> assertThat(d.content()).isEqualTo(content));
+        assertThat(ifRange).containsExactly(LAST_MODIFIED, LAST_MODIFIED);
+    }
+
+    @Test
+    public void testRetriesFailedRanges() {
+        failuresToInject.set(2);
+
+        var downloaded = new RangeDownloader(TestDefaults.defaultWebClient(), 2, 1).download(url("/snapshot.xml"), Duration.ofSeconds(10));
+
+        assertThat(downloaded).hasValueSatisfying(d -> assertThat(d.content()).isEqualTo(content));
+        assertThat(ifRange).hasSize(4);
+    }
+
+    @Test
+    public void testFailsWithoutRetryWhenRangeIsNotHonoured() {
+        honourRanges = false;
+
+        var downloader = new RangeDownloader(TestDefaults.defaultWebClient(), 2, 1);
+        assertThatThrownBy(() -> downloader.download(url("/snapshot.xml"), Duration.ofSeconds(10)))
+            .isInstanceOf(RangeDownloader.RangeNotHonouredException.class)
+            .hasMessageContaining("got 200");
+        // one request per range at most, none of them retried
+        assertThat(ifRange.size()).isBetween(1, 2);
+    }
+
+    @Test
+    public void testDoesNotSplitSmallFiles() {
+        var downloaded = new RangeDownloader(TestDefaults.defaultWebClient(), 2, content.length + 1).download(url("/snapshot.xml"), Duration.ofSeconds(10));
+
+        assertThat(downloaded).isEmpty();
+        assertThat(ifRange).isEmpty();
+    }
+
+    @Test
+    public void testFetcherFallsBackToSingleStream() {
+        honourRanges = false;
+        var config = TestDefaults.defaultConfig()
+            .withRrdpUrl(url("/notification.xml"))
+            .withSnapshotDownloadConnections(2)
+            .withSnapshotRangeDownloadMinimumSize(1);
+        var fetcher = new RrdpFetcher(config, TestDefaults.defaultWebClient(), new State(), new RRDPFetcherMetrics(new SimpleMeterRegistry()));
+
+        var result = fetcher.fetchObjects();
+
+        assertThat(result).isInstanceOf(RrdpFetcher.SuccessfulFetch.class);
+        assertThat(((RrdpFetcher.SuccessfulFetch) result).serial()).isEqualTo(42);
+        assertThat(ifRange).isNotEmpty();
+    }
+
+    @Test
+    public void testRangesCoverWholeFile() {
+        var ranges = RangeDownloader.ranges(10, 3);
+        assertThat(ranges).containsExactly(
+            new RangeDownloader.Range(0, 3),
+            new RangeDownloader.Range(4, 7),
+            new RangeDownloader.Range(8, 9));
+        assertThat(ranges.stream().mapToLong(RangeDownloader.Range::length).sum()).isEqualTo(10);
+    }
+
+    @Test
+    public void testRangesEvenSplit() {
+        assertThat(RangeDownloader.ranges(100, 4))
+            .extracting(RangeDownloader.Range::length)
+            .containsExactly(25L, 25L, 25L, 25L);
+    }
+
+    @Test
+    public void testRangesMoreConnectionsThanBytes() {
+        assertThat(RangeDownloader.ranges(2, 4)).containsExactly(
+            new RangeDownloader.Range(0, 0),
+            new RangeDownloader.Range(1, 1));
+    }
+
+    private void snapshot(HttpExchange exchange) throws IOException {
+        var headers = exchange.getResponseHeaders();
+        headers.add("Accept-Ranges", "bytes");
+        headers.add("ETag", etag);
+        headers.add("Last-Modified", LAST_MODIFIED);
+        if (exchange.getRequestMethod().equals("HEAD")) {
+            headers.add("Content-Length", String.valueOf(content.length));
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+            return;
+        }
+        var range = exchange.getRequestHeaders().getFirst("Range");
+        if (range == null) {
+            send(exchange, 200, content);
+            return;
+        }
+        ifRange.add(Objects.requireNonNullElse(exchange.getRequestHeaders().getFirst("If-Range"), ""));
+        if (failuresToInject.getAndDecrement() > 0) {
+            send(exchange, 503, new byte[0]);
+        } else if (!honourRanges) {
+            send(exchange, 200, content);
+        } else {
+            var matcher = RANGE.matcher(range);
+            assertThat(matcher.matches()).isTrue();
+            var first = Integer.parseInt(matcher.group(1));
+            var last = Integer.parseInt(matcher.group(2));
+            headers.add("Content-Range", "bytes %d-%d/%d".formatted(first, last, content.length));
+            send(exchange, 206, Arrays.copyOfRange(content, first, last + 1));
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        try (var out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private String notification() {
+        return """
+            <notification xmlns="http://www.ripe.net/rpki/rrdp" version="1" session_id="1c33ba5d-4e16-448d-9a22-b12599ef1cba" serial="42">
+            <snapshot uri="%s" hash="%s"/>
+            </notification>
+            """.formatted(url("/snapshot.xml"), Sha256.asString(content));
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:%d%s".formatted(server.getAddress().getPort(), path);
+    }
+}
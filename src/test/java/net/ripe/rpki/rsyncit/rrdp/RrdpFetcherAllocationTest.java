@@ -0,0 +1,84 @@
+package net.ripe.rpki.rsyncit.rrdp;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import net.ripe.rpki.AllocationMeter;
+import net.ripe.rpki.TestDefaults;
+import net.ripe.rpki.rsyncit.util.Cancellation;
+import net.ripe.rpki.rsyncit.util.ExecutionPools;
+import net.ripe.rpki.rsyncit.util.Sha256;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Allocation budget for parsing a snapshot: catches memory regressions in review instead of as OOMs in production.
+ */
+@Slf4j
+class RrdpFetcherAllocationTest {
+    static final int OBJECT_COUNT = 5_000;
+    static final int OBJECT_SIZE = 2_048;
+
+    // Base64 content is 4/3 of the object size; the DOM holds it once, getTextContent() copies it and decoding
+    // creates the object. Everything else (hashes, paths, records) is small per object. Measured on JDK 21:
+    // 11.3 KiB, the budget leaves about 15% on top of that for other JDKs and garbage collectors.
+    static final long BYTES_PER_OBJECT = AllocationMeter.budget("fetchBytesPerObject", 13_312);
+
+    @Test
+    public void testAllocationPerObject() throws Exception {
+        var content = new byte[OBJECT_SIZE];
+        new Random(0).nextBytes(content);
+
+        // All objects have the same content, with its timestamp in the cache: this measures the snapshot processing
+        // itself, not the CMS parsing (or the logging) of random bytes.
+        var state = new State();
+        state.cacheTimestamps(Sha256.asString(content), Instant.now(), Instant::now);
+
+        var snapshotXml = snapshotXml(content);
+        var notificationXml = """
+            <notification xmlns="http://www.ripe.net/rpki/rrdp" version="1" session_id="1c33ba5d-4e16-448d-9a22-b12599ef1cba" serial="%d">
+            <snapshot uri="https://rrdp.example.net/snapshot.xml" hash="%s"/>
+            </notification>""";
+        var snapshotBytes = snapshotXml.getBytes(StandardCharsets.UTF_8);
+        // Objects are parsed on a pool of their own, so only the threads of this fetch are measured
+        try (var pools = new ExecutionPools(4, 1, new SimpleMeterRegistry())) {
+            // two runs to warm up class loading and the JIT, then measure
+            for (int run = 0; run < 3; run++) {
+                var fetcher = new RrdpFetcher(TestDefaults.defaultConfig(), TestDefaults.defaultWebClient(), state,
+                    new RRDPFetcherMetrics(new SimpleMeterRegistry()), Cancellation.none(), pools.cpu());
+                var notificationBytes = notificationXml.formatted(1, Sha256.asString(snapshotBytes)).getBytes(StandardCharsets.UTF_8);
+                var result = new RrdpFetcher.FetchResult[1];
+                var allocated = AllocationMeter.allocatedBytes(name -> name.startsWith("rsyncit-cpu-"), () ->
+                    result[0] = fetcher.processNotificationXml(notificationBytes, url -> new RrdpFetcher.Downloaded(snapshotBytes, Optional.of(Instant.now()))));
+
+                assertThat(result[0]).isInstanceOf(RrdpFetcher.SuccessfulFetch.class);
+                assertThat(((RrdpFetcher.SuccessfulFetch) result[0]).objects()).hasSize(OBJECT_COUNT);
+
+                var perObject = allocated / OBJECT_COUNT;
+                log.info("Run {}: processNotificationXml allocated {} bytes, {} bytes per object (budget {})", run, allocated, perObject, BYTES_PER_OBJECT);
+                if (run > 1) {
+                    assertThat(perObject)
+                        .as("bytes allocated per object, set -DallocationBudget.fetchBytesPerObject to change the budget")
+                        .isLessThanOrEqualTo(BYTES_PER_OBJECT);
+                }
+            }
+        }
+    }
+
+    private static String snapshotXml(byte[] content) {
+        var base64 = Base64.getEncoder().encodeToString(content);
+        var xml = new StringBuilder("<snapshot xmlns=\"http://www.ripe.net/rpki/rrdp\" version=\"1\" session_id=\"1c33ba5d-4e16-448d-9a22-b12599ef1cba\" serial=\"1\">\n");
+        for (int i = 0; i < OBJECT_COUNT; i++) {
+            xml.append("<publish uri=\"rsync://rpki.example.net/repository/ca-").append(i % 50).append("/object-").append(i).append(".cer\">")
+                .append(base64)
+                .append("</publish>\n");
+        }
+        return xml.append("</snapshot>\n").toString();
+    }
+}
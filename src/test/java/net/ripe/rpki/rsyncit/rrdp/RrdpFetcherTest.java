@@ -20,29 +20,50 @@ import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 class RrdpFetcherTest {
+    private static final String SNAPSHOT_XML = """
+         <snapshot xmlns="http://www.ripe.net/rpki/rrdp" version="1" session_id="1c33ba5d-4e16-448d-9a22-b12599ef1cba" serial="29861">
+        <publish uri="rsync://rsync.paas.rpki.ripe.net/repository/de7d55f7-ee60-4005-bad7-b42818cf50e8/3/326131323a646434373a333830303a3a2f34302d3430203d3e20313939353138.roa">
+         MIIHSQYJKoZIhvcNAQcCoIIHOjCCBzYCAQMxDTALBglghkgBZQMEAgEwLAYLKoZIhvcNAQkQARigHQQbMBkCAwMLXjASMBAEAgACMAowCAMGACoS3Uc4oIIFRDCCBUAwggQooAMCAQICFFQczojuzpOI0wgPo/WsfLWgpXU0MA0GCSqGSIb3DQEBCwUAMDMxMTAvBgNVBAMTKDEwMzczNEQ4OUIxMDczNTRGMkQwMDlENkU3ODBBQUMwQkNFNjA2QzAwHhcNMjMwNDExMDQzNzMwWhcNMjQwNDA5MDQ0MjMwWjAzMTEwLwYDVQQDEyhFNkFGNDIyMEFGMjhEMUFCM0U0NkU5MDFERkYxNDVBOTlFNEExODM1MIIBIjANBgkqhkiG9w0BAQEFAAOCAQ8AMIIBCgKCAQEAraOjLHYk/H+ZCUhkb3pyvo3DXaWTMXL2RLURcnFdySxXZkr07brc6yuGGsDb/TI01+49uJFM7xInXOMImIB3abBl4joFOPtSUlKVv+wNFJKw87YcDqHNJGEXuVpnq/IksTt6Yc3OfXo8iOzPI0QDopuhKHhZyZFz8Xnu9XMPFhy6b9RsgufmCX0cBdhK7avnCSgQmKAMSzQsJGn0Ax2whgRaRdSyIobizbuhrF7ShCgz4r/2PeIGvpeLkvHna3bc1y3Epa7pxj6+lovA57aHn+vYb7Vk0hZLrOXoEKUwbSg+UxmgFTy77p+WJlvMLTftIcvzvSrQBUIsl+Q4MUpEywIDAQABo4ICSjCCAkYwHQYDVR0OBBYEFOavQiCvKNGrPkbpAd/xRameShg1MB8GA1UdIwQYMBaAFBA3NNibEHNU8tAJ1ueAqsC85gbAMA4GA1UdDwEB/wQEAwIHgDCBlQYDVR0fBIGNMIGKMIGHoIGEoIGBhn9yc3luYzovL3JzeW5jLnBhYXMucnBraS5yaXBlLm5ldC9yZXBvc2l0b3J5L2RlN2Q1NWY3LWVlNjAtNDAwNS1iYWQ3LWI0MjgxOGNmNTBlOC8zLzEwMzczNEQ4OUIxMDczNTRGMkQwMDlENkU3ODBBQUMwQkNFNjA2QzAuY3JsMGUGCCsGAQUFBwEBBFkwVzBVBggrBgEFBQcwAoZJcnN5bmM6Ly9ycGtpLmNvL3JlcG8vQVM5NDUvMS8xMDM3MzREODlCMTA3MzU0RjJEMDA5RDZFNzgwQUFDMEJDRTYwNkMwLmNlcjCBtwYIKwYBBQUHAQsEgaowgacwgaQGCCsGAQUFBzALhoGXcnN5bmM6Ly9yc3luYy5wYWFzLnJwa2kucmlwZS5uZXQvcmVwb3NpdG9yeS9kZTdkNTVmNy1lZTYwLTQwMDUtYmFkNy1iNDI4MThjZjUwZTgvMy8zMjYxMzEzMjNhNjQ2NDM0MzczYTMzMzgzMDMwM2EzYTJmMzQzMDJkMzQzMDIwM2QzZTIwMzEzOTM5MzUzMTM4LnJvYTAYBgNVHSABAf8EDjAMMAoGCCsGAQUFBw4CMCEGCCsGAQUFBwEHAQH/BBIwEDAOBAIAAjAIAwYAKhLdRzgwDQYJKoZIhvcNAQELBQADggEBAA06I0AKitbOd1zwcSjWfJTpvuTIkVMOLVpoIN9tPobrwfSqhRVroLjLOSu0GpAuwj+DQpQ+uCmIBID2+EZDgz3pUVGbugrfxK0/zPhj9b7hDF5mMGpAjDYCXKEXs4g0npgJ5JbkKwgnTn5tfHfyaJrxVSRlVmwP9ZzYfaSMvbottPXIAZ5kCruuToiXyglAxwiB3dhXNusW8+IDKWjNtYmkj3ACr4vCxIELdWSHLVo/4hXUzVmNkhDjjzTOtHqVmfPIkwvjyIhVI4Mfm2imwBDEiT4HRmm5+UT5SSJhQuGfiquMAk/KFdmqQXt7BV3Yvqem8sCWrngkNL/aZOdh2gAxggGqMIIBpgIBA4AU5q9CIK8o0as+RukB3/FFqZ5KGDUwCwYJYIZIAWUDBAIBoGswGgYJKoZIhvcNAQkDMQ0GCyqGSIb3DQEJEAEYMBwGCSqGSIb3DQEJBTEPFw0yMzA0MTEwNDQyMzBaMC8GCSqGSIb3DQEJBDEiBCAoTUWNO11LD3uPckxNdCgD5HgD2TWUL68H/zpZlyoLfTANBgkqhkiG9w0BAQEFAASCAQCMeQf4tND3i6i8OgCFnL7GcPinXCEoq5v4roOu/DlHlU2I7naP7bGGPmizOvfZFQRDe22dDqUdF1hhqsqylYkWKkfZOvdPWrOzjku7EpM/9yASGWuBG1iVYd9FBAszLBK9HcSjyFBscU+56cbznBwR2+VKev+i2Qv4bcytPO+XoBZXUNx/3BDPKFLqveReJmcwyPftpc5xho3Lb6kO+6qGdZuzilNcwXg9IpYR0a+/5uTwkCEoFJr9D+jJ20lNXetT4C52dqnrp2pEPflZtTyTQcJZ/0lynlHC0Ifr5HmPQ+jK2RGi/llLKzNpLYWpuh6qTw0iFW1R+DqUfIlwAnGB </publish>
+         </snapshot>
+         """;
+
+    private static final String NOTIFICATION_XML = String.format("""
+        <notification xmlns="http://www.ripe.net/rpki/rrdp" version="1" session_id="1c33ba5d-4e16-448d-9a22-b12599ef1cba" serial="29861">
+        <snapshot uri="https://rrdp.paas.rpki.ripe.net/1c33ba5d-4e16-448d-9a22-b12599ef1cba/29861/5d1d7670842dd277/snapshot.xml" hash="%s"/>
+        <delta serial="29861" uri="https://rrdp.paas.rpki.ripe.net/1c33ba5d-4e16-448d-9a22-b12599ef1cba/29861/28f75f78dba58432/delta.xml" hash="770c21936e8129499d4f08698b0f08eadf3610a6624004a179e216d568ac04f5"/>
+        <delta serial="29860" uri="https://rrdp.paas.rpki.ripe.net/1c33ba5d-4e16-448d-9a22-b12599ef1cba/29860/a04bbbe119bd2a54/delta.xml" hash="287e6323cf0507b9b6d12958894ba16c3991107f8e500e9058e09fd5f92fa47d"/>
+        </notification>
+        """, Sha256.asString(SNAPSHOT_XML));
 
     @Test
     public void testNormalFlow() throws NotificationStructureException, XPathExpressionException, IOException, ParserConfigurationException, SAXException {
-        final String snapshotXml = """
-             <snapshot xmlns="http://www.ripe.net/rpki/rrdp" version="1" session_id="1c33ba5d-4e16-448d-9a22-b12599ef1cba" serial="29861">
-            <publish uri="rsync://rsync.paas.rpki.ripe.net/repository/de7d55f7-ee60-4005-bad7-b42818cf50e8/3/326131323a646434373a333830303a3a2f34302d3430203d3e20313939353138.roa">
-             MIIHSQYJKoZIhvcNAQcCoIIHOjCCBzYCAQMxDTALBglghkgBZQMEAgEwLAYLKoZIhvcNAQkQARigHQQbMBkCAwMLXjASMBAEAgACMAowCAMGACoS3Uc4oIIFRDCCBUAwggQooAMCAQICFFQczojuzpOI0wgPo/WsfLWgpXU0MA0GCSqGSIb3DQEBCwUAMDMxMTAvBgNVBAMTKDEwMzczNEQ4OUIxMDczNTRGMkQwMDlENkU3ODBBQUMwQkNFNjA2QzAwHhcNMjMwNDExMDQzNzMwWhcNMjQwNDA5MDQ0MjMwWjAzMTEwLwYDVQQDEyhFNkFGNDIyMEFGMjhEMUFCM0U0NkU5MDFERkYxNDVBOTlFNEExODM1MIIBIjANBgkqhkiG9w0BAQEFAAOCAQ8AMIIBCgKCAQEAraOjLHYk/H+ZCUhkb3pyvo3DXaWTMXL2RLURcnFdySxXZkr07brc6yuGGsDb/TI01+49uJFM7xInXOMImIB3abBl4joFOPtSUlKVv+wNFJKw87YcDqHNJGEXuVpnq/IksTt6Yc3OfXo8iOzPI0QDopuhKHhZyZFz8Xnu9XMPFhy6b9RsgufmCX0cBdhK7avnCSgQmKAMSzQsJGn0Ax2whgRaRdSyIobizbuhrF7ShCgz4r/2PeIGvpeLkvHna3bc1y3Epa7pxj6+lovA57aHn+vYb7Vk0hZLrOXoEKUwbSg+UxmgFTy77p+WJlvMLTftIcvzvSrQBUIsl+Q4MUpEywIDAQABo4ICSjCCAkYwHQYDVR0OBBYEFOavQiCvKNGrPkbpAd/xRameShg1MB8GA1UdIwQYMBaAFBA3NNibEHNU8tAJ1ueAqsC85gbAMA4GA1UdDwEB/wQEAwIHgDCBlQYDVR0fBIGNMIGKMIGHoIGEoIGBhn9yc3luYzovL3JzeW5jLnBhYXMucnBraS5yaXBlLm5ldC9yZXBvc2l0b3J5L2RlN2Q1NWY3LWVlNjAtNDAwNS1iYWQ3LWI0MjgxOGNmNTBlOC8zLzEwMzczNEQ4OUIxMDczNTRGMkQwMDlENkU3ODBBQUMwQkNFNjA2QzAuY3JsMGUGCCsGAQUFBwEBBFkwVzBVBggrBgEFBQcwAoZJcnN5bmM6Ly9ycGtpLmNvL3JlcG8vQVM5NDUvMS8xMDM3MzREODlCMTA3MzU0RjJEMDA5RDZFNzgwQUFDMEJDRTYwNkMwLmNlcjCBtwYIKwYBBQUHAQsEgaowgacwgaQGCCsGAQUFBzALhoGXcnN5bmM6Ly9yc3luYy5wYWFzLnJwa2kucmlwZS5uZXQvcmVwb3NpdG9yeS9kZTdkNTVmNy1lZTYwLTQwMDUtYmFkNy1iNDI4MThjZjUwZTgvMy8zMjYxMzEzMjNhNjQ2NDM0MzczYTMzMzgzMDMwM2EzYTJmMzQzMDJkMzQzMDIwM2QzZTIwMzEzOTM5MzUzMTM4LnJvYTAYBgNVHSABAf8EDjAMMAoGCCsGAQUFBw4CMCEGCCsGAQUFBwEHAQH/BBIwEDAOBAIAAjAIAwYAKhLdRzgwDQYJKoZIhvcNAQELBQADggEBAA06I0AKitbOd1zwcSjWfJTpvuTIkVMOLVpoIN9tPobrwfSqhRVroLjLOSu0GpAuwj+DQpQ+uCmIBID2+EZDgz3pUVGbugrfxK0/zPhj9b7hDF5mMGpAjDYCXKEXs4g0npgJ5JbkKwgnTn5tfHfyaJrxVSRlVmwP9ZzYfaSMvbottPXIAZ5kCruuToiXyglAxwiB3dhXNusW8+IDKWjNtYmkj3ACr4vCxIELdWSHLVo/4hXUzVmNkhDjjzTOtHqVmfPIkwvjyIhVI4Mfm2imwBDEiT4HRmm5+UT5SSJhQuGfiquMAk/KFdmqQXt7BV3Yvqem8sCWrngkNL/aZOdh2gAxggGqMIIBpgIBA4AU5q9CIK8o0as+RukB3/FFqZ5KGDUwCwYJYIZIAWUDBAIBoGswGgYJKoZIhvcNAQkDMQ0GCyqGSIb3DQEJEAEYMBwGCSqGSIb3DQEJBTEPFw0yMzA0MTEwNDQyMzBaMC8GCSqGSIb3DQEJBDEiBCAoTUWNO11LD3uPckxNdCgD5HgD2TWUL68H/zpZlyoLfTANBgkqhkiG9w0BAQEFAASCAQCMeQf4tND3i6i8OgCFnL7GcPinXCEoq5v4roOu/DlHlU2I7naP7bGGPmizOvfZFQRDe22dDqUdF1hhqsqylYkWKkfZOvdPWrOzjku7EpM/9yASGWuBG1iVYd9FBAszLBK9HcSjyFBscU+56cbznBwR2+VKev+i2Qv4bcytPO+XoBZXUNx/3BDPKFLqveReJmcwyPftpc5xho3Lb6kO+6qGdZuzilNcwXg9IpYR0a+/5uTwkCEoFJr9D+jJ20lNXetT4C52dqnrp2pEPflZtTyTQcJZ/0lynlHC0Ifr5HmPQ+jK2RGi/llLKzNpLYWpuh6qTw0iFW1R+DqUfIlwAnGB </publish>
-             </snapshot>
-             """;
-
-        final String notificationXml = String.format("""
-            <notification xmlns="http://www.ripe.net/rpki/rrdp" version="1" session_id="1c33ba5d-4e16-448d-9a22-b12599ef1cba" serial="29861">
-            <snapshot uri="https://rrdp.paas.rpki.ripe.net/1c33ba5d-4e16-448d-9a22-b12599ef1cba/29861/5d1d7670842dd277/snapshot.xml" hash="%s"/>
-            <delta serial="29861" uri="https://rrdp.paas.rpki.ripe.net/1c33ba5d-4e16-448d-9a22-b12599ef1cba/29861/28f75f78dba58432/delta.xml" hash="770c21936e8129499d4f08698b0f08eadf3610a6624004a179e216d568ac04f5"/>
-            <delta serial="29860" uri="https://rrdp.paas.rpki.ripe.net/1c33ba5d-4e16-448d-9a22-b12599ef1cba/29860/a04bbbe119bd2a54/delta.xml" hash="287e6323cf0507b9b6d12958894ba16c3991107f8e500e9058e09fd5f92fa47d"/>
-            </notification>
-            """, Sha256.asString(snapshotXml));
-
-        var result = tryFetch(notificationXml, snapshotXml);
+        var result = tryFetch(NOTIFICATION_XML, SNAPSHOT_XML);
         assertThat(result).isInstanceOf(RrdpFetcher.SuccessfulFetch.class);
         assertThat(((RrdpFetcher.SuccessfulFetch) result).objects().size()).isEqualTo(1);
     }
 
+    @Test
+    public void testSnapshotStatistics() throws NotificationStructureException, XPathExpressionException, IOException, ParserConfigurationException, SAXException {
+        var registry = new SimpleMeterRegistry();
+        tryFetch(NOTIFICATION_XML, SNAPSHOT_XML, new RRDPFetcherMetrics(registry));
+
+        assertThat(registry.get("rsyncit.fetcher.snapshot.objects").tag("type", "roa").gauge().value()).isEqualTo(1.0);
+        assertThat(registry.get("rsyncit.fetcher.snapshot.objects").tag("type", "cer").gauge().value()).isEqualTo(0.0);
+        assertThat(registry.get("rsyncit.fetcher.snapshot.bytes").tag("type", "roa").gauge().value()).isGreaterThan(1000.0);
+        assertThat(registry.get("rsyncit.fetcher.object.size").tag("type", "roa").summary().count()).isEqualTo(1);
+        // first time this object is seen
+        assertThat(registry.get("rsyncit.fetcher.timestamp.cache.hit.ratio").gauge().value()).isEqualTo(0.0);
+    }
+
+    @Test
+    public void testObjectType() {
+        assertThat(ObjectType.of("a.cer")).isEqualTo(ObjectType.CER);
+        assertThat(ObjectType.of("A.MFT")).isEqualTo(ObjectType.MFT);
+        assertThat(ObjectType.of("b.asa")).isEqualTo(ObjectType.ASA);
+        assertThat(ObjectType.of("cer")).isEqualTo(ObjectType.OTHER);
+        assertThat(ObjectType.of("c.roa.txt")).isEqualTo(ObjectType.OTHER);
+    }
+
     @Test
     public void testEmptyNotificationXml() {
         assertThatThrownBy(() -> tryFetch("", null))
@@ -130,8 +151,70 @@ class RrdpFetcherTest {
         assertThrows(SAXParseException.class, () -> tryFetch(notificationXml, snapshotXml));
     }
 
+    @Test
+    public void testOlderSerialIsStale() throws Exception {
+        final String notificationXml = """
+            <notification xmlns="http://www.ripe.net/rpki/rrdp" version="1" session_id="1c33ba5d-4e16-448d-9a22-b12599ef1cba" serial="29860">
+            <snapshot uri="https://rrdp.paas.rpki.ripe.net/1c33ba5d-4e16-448d-9a22-b12599ef1cba/29860/5d1d7670842dd277/snapshot.xml" hash="5d1d7670842dd277"/>
+            </notification>
+            """;
+        var state = new State();
+        state.setRrdpState(new State.RrdpState("1c33ba5d-4e16-448d-9a22-b12599ef1cba", 29861));
+        state.setPublishedSerial(new State.PublishedSerial("1c33ba5d-4e16-448d-9a22-b12599ef1cba", 29861));
+        var registry = new SimpleMeterRegistry();
+
+        // the snapshot is not even downloaded
+        var result = tryFetch(notificationXml, null, new RRDPFetcherMetrics(registry), state);
+        assertThat(result).isEqualTo(new RrdpFetcher.NoUpdates("1c33ba5d-4e16-448d-9a22-b12599ef1cba", 29861, true));
+        assertThat(registry.get("rsyncit.fetcher.updated").tag("status", "stale").counter().count()).isEqualTo(1.0);
+        assertThat(registry.get("rsyncit.fetcher.updated").tag("status", "success").counter().count()).isZero();
+
+        // a lower serial in another session is not stale
+        state.setPublishedSerial(new State.PublishedSerial("other-session", 29861));
+        var fetcher = new RrdpFetcher(TestDefaults.defaultConfig(), TestDefaults.defaultWebClient(), state, new RRDPFetcherMetrics(new SimpleMeterRegistry()));
+        assertThat(fetcher.isStale(RrdpFetcher.parseNotification(notificationXml.getBytes(StandardCharsets.UTF_8)))).isFalse();
+    }
+
+    @Test
+    public void testOlderSerialAfterFailedFetchIsStale() throws Exception {
+        final String notificationXml = """
+            <notification xmlns="http://www.ripe.net/rpki/rrdp" version="1" session_id="1c33ba5d-4e16-448d-9a22-b12599ef1cba" serial="29860">
+            <snapshot uri="https://rrdp.paas.rpki.ripe.net/1c33ba5d-4e16-448d-9a22-b12599ef1cba/29860/5d1d7670842dd277/snapshot.xml" hash="5d1d7670842dd277"/>
+            </notification>
+            """;
+        var state = new State();
+        state.setPublishedSerial(new State.PublishedSerial("1c33ba5d-4e16-448d-9a22-b12599ef1cba", 29861));
+        // the fetch after the publication failed: the RRDP state has no serial anymore
+        state.setRrdpState(new State.RrdpState("Connection refused"));
+
+        var result = tryFetch(notificationXml, null, new RRDPFetcherMetrics(new SimpleMeterRegistry()), state);
+        assertThat(result).isEqualTo(new RrdpFetcher.NoUpdates("1c33ba5d-4e16-448d-9a22-b12599ef1cba", 29861, true));
+    }
+
+    @Test
+    public void testNotificationSupersedes() {
+        var n = notification("session", 10);
+        assertThat(notification("session", 11).supersedes(n)).isTrue();
+        assertThat(n.supersedes(n)).isFalse();
+        assertThat(notification("session", 9).supersedes(n)).isFalse();
+        // serials start over after a session reset
+        assertThat(notification("other", 1).supersedes(n)).isTrue();
+    }
+
+    private static RrdpFetcher.NotificationXml notification(String sessionId, int serial) {
+        return new RrdpFetcher.NotificationXml(sessionId, serial, "https://host/snapshot.xml", "hash");
+    }
+
     private RrdpFetcher.FetchResult tryFetch(String notificationXml, String snapshotXml) throws NotificationStructureException, XPathExpressionException, IOException, ParserConfigurationException, SAXException {
-        var fetcher = new RrdpFetcher(TestDefaults.defaultConfig(), TestDefaults.defaultWebClient(), new State(), new RRDPFetcherMetrics(new SimpleMeterRegistry()));
+        return tryFetch(notificationXml, snapshotXml, new RRDPFetcherMetrics(new SimpleMeterRegistry()));
+    }
+
+    private RrdpFetcher.FetchResult tryFetch(String notificationXml, String snapshotXml, RRDPFetcherMetrics metrics) throws NotificationStructureException, XPathExpressionException, IOException, ParserConfigurationException, SAXException {
+        return tryFetch(notificationXml, snapshotXml, metrics, new State());
+    }
+
+    private RrdpFetcher.FetchResult tryFetch(String notificationXml, String snapshotXml, RRDPFetcherMetrics metrics, State state) throws NotificationStructureException, XPathExpressionException, IOException, ParserConfigurationException, SAXException {
+        var fetcher = new RrdpFetcher(TestDefaults.defaultConfig(), TestDefaults.defaultWebClient(), state, metrics);
         return fetcher.processNotificationXml(notificationXml.getBytes(StandardCharsets.UTF_8),
             url -> new RrdpFetcher.Downloaded(snapshotXml.getBytes(StandardCharsets.UTF_8), Optional.of(Instant.now())));
     }
@@ -0,0 +1,80 @@
+package net.ripe.rpki.rsyncit.rrdp;
+
+import net.ripe.rpki.rsyncit.util.Sha256;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SnapshotCacheTest {
+
+    @Test
+    public void testReturnsStoredSnapshot(@TempDir Path tmpPath) {
+        var cache = new SnapshotCache(tmpPath, 1024);
+        var lastModified = Instant.parse("2024-01-01T10:00:00Z");
+        var content = "<snapshot/>".getBytes(StandardCharsets.UTF_8);
+        var hash = Sha256.asString(content);
+
+        assertThat(cache.get(hash)).isEmpty();
+        cache.put(hash, new RrdpFetcher.Downloaded(content, Optional.of(lastModified)));
+
+        var cached = cache.get(hash.toUpperCase());
+        assertThat(cached).isPresent();
+        assertThat(cached.get().content()).isEqualTo(content);
+        assertThat(cached.get().lastModified()).contains(lastModified);
+    }
+
+    @Test
+    public void testKeepsMissingLastModified(@TempDir Path tmpPath) {
+        var cache = new SnapshotCache(tmpPath, 1024);
+        var content = "<snapshot/>".getBytes(StandardCharsets.UTF_8);
+        var hash = Sha256.asString(content);
+        cache.put(hash, new RrdpFetcher.Downloaded(content, Optional.empty()));
+
+        assertThat(cache.get(hash).orElseThrow().lastModified()).isEmpty();
+    }
+
+    @Test
+    public void testRemovesCorruptedSnapshot(@TempDir Path tmpPath) throws Exception {
+        var cache = new SnapshotCache(tmpPath, 1024);
+        var content = "<snapshot/>".getBytes(StandardCharsets.UTF_8);
+        var hash = Sha256.asString(content);
+        cache.put(hash, new RrdpFetcher.Downloaded(content, Optional.empty()));
+
+        try (var files = Files.list(tmpPath)) {
+            Files.writeString(files.findFirst().orElseThrow(), "<snapshot>truncat");
+        }
+        assertThat(cache.get(hash)).isEmpty();
+        try (var files = Files.list(tmpPath)) {
+            assertThat(files).isEmpty();
+        }
+    }
+
+    @Test
+    public void testEvictsOldestSnapshots(@TempDir Path tmpPath) {
+        var cache = new SnapshotCache(tmpPath, 25);
+        var older = "<snapshot serial=\"1\"/>".getBytes(StandardCharsets.UTF_8);
+        var newer = "<snapshot serial=\"2\"/>".getBytes(StandardCharsets.UTF_8);
+        cache.put(Sha256.asString(older), new RrdpFetcher.Downloaded(older, Optional.of(Instant.parse("2024-01-01T10:00:00Z"))));
+        cache.put(Sha256.asString(newer), new RrdpFetcher.Downloaded(newer, Optional.of(Instant.parse("2024-01-01T11:00:00Z"))));
+
+        assertThat(cache.get(Sha256.asString(older))).isEmpty();
+        assertThat(cache.get(Sha256.asString(newer))).isPresent();
+    }
+
+    @Test
+    public void testIgnoresInvalidHash(@TempDir Path tmpPath) {
+        var cache = new SnapshotCache(tmpPath, 1024);
+        var content = "<snapshot/>".getBytes(StandardCharsets.UTF_8);
+        cache.put("../../etc/passwd", new RrdpFetcher.Downloaded(content, Optional.empty()));
+
+        assertThat(cache.get("../../etc/passwd")).isEmpty();
+        assertThat(tmpPath.toFile().list()).isEmpty();
+    }
+}
@@ -0,0 +1,153 @@
+package net.ripe.rpki.rsyncit.rrdp;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Populating the timestamp cache from all cores, as the parallel parse of a snapshot on a cold cache does.
+ */
+@Slf4j
+class StateContentionTest {
+    static final int OBJECT_COUNT = 50_000;
+    // Roughly the cost of finding the signing time in a small signed object
+    static final long PARSE_NANOS = 20_000;
+    static final int MEASURED_RUNS = 5;
+
+    @Test
+    public void testParsesOutsideOfTheMapLock() throws Exception {
+        // Same hashCode, so the same bin of the map
+        assertThat("Aa".hashCode()).isEqualTo("BB".hashCode());
+
+        var subject = new State();
+        var bothParsing = new CountDownLatch(2);
+        var now = Instant.now();
+        var createdAt = Instant.ofEpochMilli(1_000_000_000);
+
+        try (var executor = Executors.newFixedThreadPool(2)) {
+            var results = executor.invokeAll(List.of("Aa", "BB").stream()
+                .map(key -> (Callable<Instant>) () -> subject.cacheTimestamps(key, now, () -> {
+                    bothParsing.countDown();
+                    try {
+                        // Times out when the other thread can not start parsing
+                        return bothParsing.await(10, TimeUnit.SECONDS) ? createdAt : null;
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }))
+                .toList());
+            for (var result : results) {
+                assertThat(result.get()).isEqualTo(createdAt);
+            }
+        }
+    }
+
+    @Test
+    public void testFirstInsertWins() throws Exception {
+        var subject = new State();
+        var bothParsing = new CountDownLatch(2);
+        var now = Instant.now();
+
+        try (var executor = Executors.newFixedThreadPool(2)) {
+            var results = executor.invokeAll(IntStream.range(0, 2)
+                .mapToObj(i -> (Callable<Instant>) () -> subject.cacheTimestamps("hash", now, () -> {
+                    bothParsing.countDown();
+                    try {
+                        bothParsing.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                    return Instant.ofEpochMilli(1_000_000_000L + i);
+                }))
+                .toList());
+            var cached = subject.getTimes().get("hash").getCreatedAt();
+            for (var result : results) {
+                assertThat(result.get()).isEqualTo(cached);
+            }
+        }
+    }
+
+    /**
+     * Benchmark, not part of the default test run (`./gradlew benchmark`): it keeps all cores busy for a few seconds.
+     * Compares cacheTimestamps with the computeIfAbsent it replaced, over the median of {@link #MEASURED_RUNS} runs.
+     */
+    @Test
+    @Tag("benchmark")
+    public void testColdCacheAllCores() {
+        var random = new Random(0);
+        var hashes = IntStream.range(0, OBJECT_COUNT)
+            .mapToObj(i -> "%016x%016x".formatted(random.nextLong(), random.nextLong()))
+            .toList();
+        var pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        var now = Instant.now();
+        var computeIfAbsentMillis = new ArrayList<Long>();
+        var cacheTimestampsMillis = new ArrayList<Long>();
+        try {
+            // first run to warm up the JIT, then measure
+            for (int run = 0; run <= MEASURED_RUNS; run++) {
+                var parses = new AtomicInteger();
+                Supplier<Instant> countingParse = () -> {
+                    parses.incrementAndGet();
+                    return parse();
+                };
+
+                var baseline = new ConcurrentHashMap<String, Instant>();
+                var start = System.nanoTime();
+                pool.submit(() -> hashes.parallelStream().forEach(hash -> baseline.computeIfAbsent(hash, h -> countingParse.get()))).join();
+                var baselineMillis = (System.nanoTime() - start) / 1_000_000;
+
+                var state = new State();
+                start = System.nanoTime();
+                pool.submit(() -> hashes.parallelStream().forEach(hash -> state.cacheTimestamps(hash, now, countingParse))).join();
+                var millis = (System.nanoTime() - start) / 1_000_000;
+
+                // all keys are distinct: every object is parsed once, by either of them
+                assertThat(parses.get()).isEqualTo(2 * OBJECT_COUNT);
+                assertThat(state.getTimes()).hasSize(OBJECT_COUNT);
+                log.info("Run {}: {} objects on {} threads, computeIfAbsent {}ms, cacheTimestamps {}ms",
+                    run, OBJECT_COUNT, pool.getParallelism(), baselineMillis, millis);
+                if (run > 0) {
+                    computeIfAbsentMillis.add(baselineMillis);
+                    cacheTimestampsMillis.add(millis);
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        var baseline = median(computeIfAbsentMillis);
+        var median = median(cacheTimestampsMillis);
+        log.info("Median of {} runs: computeIfAbsent {}ms, cacheTimestamps {}ms, lower bound {}ms", MEASURED_RUNS,
+            baseline, median, OBJECT_COUNT * PARSE_NANOS / 1_000_000 / pool.getParallelism());
+        // Parsing outside of the lock must not be slower than parsing inside of it
+        assertThat(median).isLessThanOrEqualTo(baseline + baseline / 10);
+    }
+
+    private static long median(List<Long> values) {
+        return values.stream().sorted().toList().get(values.size() / 2);
+    }
+
+    private static Instant parse() {
+        var until = System.nanoTime() + PARSE_NANOS;
+        while (System.nanoTime() < until) {
+            Thread.onSpinWait();
+        }
+        return Instant.ofEpochMilli(1_000_000_000);
+    }
+}
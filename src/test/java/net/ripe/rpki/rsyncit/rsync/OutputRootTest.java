@@ -0,0 +1,83 @@
+package net.ripe.rpki.rsyncit.rsync;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.ripe.rpki.rsyncit.rrdp.RpkiObject;
+import net.ripe.rpki.rsyncit.util.Cancellation;
+import net.ripe.rpki.rsyncit.util.SyncCancelledException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static net.ripe.rpki.TestDefaults.defaultConfig;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class OutputRootTest {
+    private static final List<RpkiObject> OBJECTS = List.of(
+        new RpkiObject(URI.create("rsync://bla.net/path1/a.cer"), "a".getBytes(StandardCharsets.US_ASCII), Instant.now()));
+
+    @Test
+    public void testWritesEveryRoot(@TempDir Path tmpPath) throws Exception {
+        var roots = List.of(outputRoot(tmpPath.resolve("root1")), outputRoot(tmpPath.resolve("root2")));
+        for (var root : roots) {
+            Files.createDirectories(root.getPath());
+            root.write(defaultConfig(), OBJECTS, "digest", Instant.now(), Cancellation.none(), null);
+
+            assertThat(root.getPublishedDigest()).isEqualTo("digest");
+            assertThat(root.getFailure()).isNull();
+            assertThat(root.getPath().resolve("published/bla.net/path1/a.cer")).hasContent("a");
+        }
+    }
+
+    @Test
+    public void testFailure(@TempDir Path tmpPath) throws Exception {
+        var root = outputRoot(tmpPath.resolve("root"));
+        Files.createDirectories(root.getPath());
+        root.write(defaultConfig(), OBJECTS, "digest", Instant.now(), Cancellation.none(), null);
+
+        // Not a directory anymore
+        Files.walk(root.getPath()).sorted(Comparator.reverseOrder()).forEach(OutputRootTest::delete);
+        Files.writeString(root.getPath(), "not a directory");
+
+        assertThatThrownBy(() -> root.write(defaultConfig(), OBJECTS, "digest2", Instant.now(), Cancellation.none(), null))
+            .isInstanceOf(IOException.class);
+        assertThat(root.getPublishedDigest()).isNull();
+        assertThat(root.getFailure()).isNotNull();
+    }
+
+    @Test
+    public void testCancelledWriteKeepsDigest(@TempDir Path tmpPath) throws Exception {
+        var root = outputRoot(tmpPath.resolve("root"));
+        Files.createDirectories(root.getPath());
+        root.write(defaultConfig(), OBJECTS, "digest", Instant.now(), Cancellation.none(), null);
+
+        var cancellation = new Cancellation();
+        cancellation.cancel("newer serial");
+        assertThatThrownBy(() -> root.write(defaultConfig(), OBJECTS, "digest2", Instant.now(), cancellation, null))
+            .isInstanceOf(SyncCancelledException.class);
+        assertThat(root.getPublishedDigest()).isEqualTo("digest");
+        assertThat(root.getFailure()).isNull();
+    }
+
+    private static OutputRoot outputRoot(Path path) {
+        return new OutputRoot(path, WriteConcurrencyTuner.forAvailableProcessors(false),
+            new RsyncWriterMetrics(new SimpleMeterRegistry()), new ForkJoinPool());
+    }
+
+    private static void delete(Path path) {
+        try {
+            Files.delete(path);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
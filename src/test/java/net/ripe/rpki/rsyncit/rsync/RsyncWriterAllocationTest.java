@@ -0,0 +1,60 @@
+package net.ripe.rpki.rsyncit.rsync;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import net.ripe.rpki.AllocationMeter;
+import net.ripe.rpki.rsyncit.rrdp.ObjectPathTrie;
+import net.ripe.rpki.rsyncit.rrdp.RpkiObject;
+import net.ripe.rpki.rsyncit.util.ExecutionPools;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static net.ripe.rpki.TestDefaults.defaultConfig;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Allocation budget for writing a repository: catches memory regressions in review instead of as OOMs in production.
+ */
+@Slf4j
+class RsyncWriterAllocationTest {
+    static final int OBJECT_COUNT = 5_000;
+
+    // The content is not copied on the heap when writing, what is allocated per object are paths, attributes and
+    // the bookkeeping of the writer. Measured on JDK 21: 2.8-3.1 KiB, the budget leaves about 15% on top of that.
+    static final long BYTES_PER_OBJECT = AllocationMeter.budget("writeBytesPerObject", 3_584);
+
+    @Test
+    public void testAllocationPerObject(@TempDir Path tmpPath) throws Exception {
+        var content = new byte[2_048];
+        new Random(0).nextBytes(content);
+        var paths = new ObjectPathTrie();
+        var now = Instant.now();
+        var objects = IntStream.range(0, OBJECT_COUNT).mapToObj(i ->
+            new RpkiObject(paths.intern("rsync://rpki.example.net/repository/ca-" + (i % 50) + "/object-" + i + ".cer"), content, now)
+        ).toList();
+
+        // Files are written by a pool of its own, so only the threads of this write are measured
+        try (var pools = new ExecutionPools(1, 4, new SimpleMeterRegistry())) {
+            var writer = new RsyncWriter(defaultConfig().withRsyncPath(tmpPath), WriteConcurrencyTuner.forAvailableProcessors(false),
+                new RsyncWriterMetrics(new SimpleMeterRegistry()), new InPlaceIndex(), new PublicationListing(), pools.io());
+            // two runs to warm up class loading and the JIT, then measure
+            for (int run = 0; run < 3; run++) {
+                var then = now.plusSeconds(run);
+                var allocated = AllocationMeter.allocatedBytes(name -> name.startsWith("rsyncit-io-"), () -> writer.writeObjects(objects, then));
+
+                var perObject = allocated / OBJECT_COUNT;
+                log.info("Run {}: writeObjects allocated {} bytes, {} bytes per object (budget {})", run, allocated, perObject, BYTES_PER_OBJECT);
+                if (run > 1) {
+                    assertThat(perObject)
+                        .as("bytes allocated per object, set -DallocationBudget.writeBytesPerObject to change the budget")
+                        .isLessThanOrEqualTo(BYTES_PER_OBJECT);
+                }
+            }
+        }
+    }
+}
@@ -1,8 +1,12 @@
 package net.ripe.rpki.rsyncit.rsync;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import net.ripe.rpki.rsyncit.config.Config;
+import net.ripe.rpki.rsyncit.rrdp.ObjectContent;
 import net.ripe.rpki.rsyncit.rrdp.RpkiObject;
+import net.ripe.rpki.rsyncit.util.Cancellation;
+import net.ripe.rpki.rsyncit.util.SyncCancelledException;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
@@ -11,16 +15,22 @@ import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.FileTime;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.ChronoUnit;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import static net.ripe.rpki.TestDefaults.defaultConfig;
 import static org.assertj.core.api.Assertions.*;
@@ -83,6 +93,224 @@ class RsyncWriterTest {
         });
     }
 
+    @Test
+    public void testWriteMultipleObjectsWithGroupCommit(@TempDir Path tmpPath) throws Exception {
+        withRsyncWriter(tmpPath, config -> config.withWriteDurability(WriteDurability.GROUP_COMMIT).withChangeFeedEnabled(true), rsyncWriter -> {
+            // More files per directory than fit in one batch
+            var objects = IntStream.range(0, 6 * RsyncWriter.DIRECTORY_BATCH_SIZE + 1).mapToObj(i ->
+                new RpkiObject(URI.create("rsync://bla.net/path" + (i % 3) + "/" + i + ".cer"), someBytes(), Instant.now())
+            ).toList();
+            var targetDir = rsyncWriter.writeObjects(objects, Instant.now());
+            assertThat(tmpPath.resolve("published").toRealPath()).isEqualTo(targetDir.toRealPath());
+            for (var object : objects) {
+                checkFile(tmpPath.resolve("published/bla.net").resolve(object.url().getPath().substring(1)), object.bytes());
+            }
+            assertThat(Files.readAllLines(RsyncWriter.changeFeedPath(targetDir)))
+                .hasSize(4 + objects.size())
+                .contains("+ bla.net/path0/0.cer", "+ bla.net/path2/" + (objects.size() - 2) + ".cer");
+        });
+    }
+
+    @Test
+    public void testWriteInPlaceAppliesOnlyChanges(@TempDir Path tmpPath) throws Exception {
+        withRsyncWriter(tmpPath, config -> config.withWriteMode(WriteMode.IN_PLACE), rsyncWriter -> {
+            var t0 = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+            var o1 = new RpkiObject(URI.create("rsync://bla.net/path1/a.cer"), someBytes(), t0);
+            var o2 = new RpkiObject(URI.create("rsync://bla.net/path1/b.mft"), someBytes(), t0);
+            var o3 = new RpkiObject(URI.create("rsync://bla.net/path2/nested/c.roa"), someBytes(), t0);
+
+            var root = rsyncWriter.writeObjects(Arrays.asList(o1, o2, o3), Instant.now());
+            assertThat(root).isEqualTo(tmpPath.resolve(RsyncWriter.IN_PLACE_DIRECTORY));
+            assertThat(tmpPath.resolve("published").toRealPath()).isEqualTo(root.toRealPath());
+            checkFile(tmpPath.resolve("published/bla.net/path1/a.cer"), o1.bytes());
+            checkFile(tmpPath.resolve("published/bla.net/path1/b.mft"), o2.bytes());
+            checkFile(tmpPath.resolve("published/bla.net/path2/nested/c.roa"), o3.bytes());
+            var unchangedInode = Files.getAttribute(root.resolve("bla.net/path1/a.cer"), "unix:ino");
+
+            // b.mft changes, c.roa is removed, d.cer is new
+            var o2b = new RpkiObject(o2.url(), someBytes(), t0.plusSeconds(60));
+            var o4 = new RpkiObject(URI.create("rsync://bla.net/path1/d.cer"), someBytes(), t0.plusSeconds(60));
+            assertThat(rsyncWriter.writeObjects(Arrays.asList(o1, o2b, o4), Instant.now())).isEqualTo(root);
+
+            checkFile(root.resolve("bla.net/path1/a.cer"), o1.bytes());
+            assertThat(Files.getAttribute(root.resolve("bla.net/path1/a.cer"), "unix:ino")).isEqualTo(unchangedInode);
+            checkFile(root.resolve("bla.net/path1/b.mft"), o2b.bytes());
+            assertThat(Files.getLastModifiedTime(root.resolve("bla.net/path1/b.mft"))).isEqualTo(FileTime.from(o2b.modificationTime()));
+            checkFile(root.resolve("bla.net/path1/d.cer"), o4.bytes());
+            assertThat(root.resolve("bla.net/path2/nested/c.roa")).doesNotExist();
+            // empty directories are removed with the file
+            assertThat(root.resolve("bla.net/path2")).doesNotExist();
+            assertThat(Files.getLastModifiedTime(root.resolve("bla.net/path1"))).isEqualTo(RsyncWriter.INTERNAL_DIRECTORY_LAST_MODIFIED_TIME);
+            // no publication directories in this mode
+            try (var files = Files.list(tmpPath)) {
+                assertThat(files.map(p -> p.getFileName().toString()))
+                    .containsExactlyInAnyOrder("published", RsyncWriter.IN_PLACE_DIRECTORY, RsyncWriter.IN_PLACE_STAGING_DIRECTORY);
+            }
+        });
+    }
+
+    @Test
+    public void testWriteInPlaceKeepsRemovedFilesDuringGracePeriod(@TempDir Path tmpPath) throws Exception {
+        withRsyncWriter(tmpPath, config -> config.withWriteMode(WriteMode.IN_PLACE).withInPlaceRemovalGracePeriod(Duration.ofMinutes(10)), rsyncWriter -> {
+            var t0 = Instant.now();
+            var o1 = new RpkiObject(URI.create("rsync://bla.net/path1/a.cer"), someBytes(), t0);
+            var o2 = new RpkiObject(URI.create("rsync://bla.net/path1/b.cer"), someBytes(), t0);
+
+            var root = rsyncWriter.writeObjects(Arrays.asList(o1, o2), t0);
+            rsyncWriter.writeObjects(List.of(o1), t0.plusSeconds(60));
+            checkFile(root.resolve("bla.net/path1/b.cer"), o2.bytes());
+
+            rsyncWriter.writeObjects(List.of(o1), t0.plusSeconds(660));
+            assertThat(root.resolve("bla.net/path1/b.cer")).doesNotExist();
+            checkFile(root.resolve("bla.net/path1/a.cer"), o1.bytes());
+        });
+    }
+
+    @Test
+    public void testWriteInPlaceAfterRestartUsesExistingTree(@TempDir Path tmpPath) throws Exception {
+        var o1 = new RpkiObject(URI.create("rsync://bla.net/path1/a.cer"), someBytes(), Instant.now().truncatedTo(ChronoUnit.SECONDS));
+        Function<Config, Config> inPlace = config -> config.withWriteMode(WriteMode.IN_PLACE);
+        var inode = new Object[1];
+        withRsyncWriter(tmpPath, inPlace, rsyncWriter -> {
+            var root = rsyncWriter.writeObjects(List.of(o1), Instant.now());
+            inode[0] = Files.getAttribute(root.resolve("bla.net/path1/a.cer"), "unix:ino");
+        });
+        // a new writer has a new (empty) index that is loaded from disk
+        withRsyncWriter(tmpPath, inPlace, rsyncWriter -> {
+            var root = rsyncWriter.writeObjects(List.of(o1), Instant.now());
+            assertThat(Files.getAttribute(root.resolve("bla.net/path1/a.cer"), "unix:ino")).isEqualTo(inode[0]);
+        });
+    }
+
+    @Test
+    public void testCancelledWriteKeepsPublishedDirectory(@TempDir Path tmpPath) throws Exception {
+        withRsyncWriter(tmpPath, rsyncWriter -> {
+            var o1 = new RpkiObject(URI.create("rsync://bla.net/path1/a.cer"), someBytes(), Instant.now());
+            var published = rsyncWriter.writeObjects(List.of(o1), Instant.now());
+
+            var cancellation = new Cancellation();
+            cancellation.cancel("newer serial");
+            var o2 = new RpkiObject(URI.create("rsync://bla.net/path1/b.cer"), someBytes(), Instant.now());
+            assertThatThrownBy(() -> rsyncWriter.writeObjects(List.of(o1, o2), Instant.now().plusSeconds(1), cancellation))
+                    .isInstanceOf(SyncCancelledException.class);
+
+            var root = rsyncWriter.getConfig().rsyncPath();
+            assertThat(root.resolve("published").toRealPath()).isEqualTo(published.toRealPath());
+            assertThat(root.resolve("published/bla.net/path1/b.cer")).doesNotExist();
+            try (var files = Files.list(root)) {
+                assertThat(files.map(f -> f.getFileName().toString())).noneMatch(name -> name.startsWith("rsync-writer-tmp"));
+            }
+        });
+    }
+
+    @Test
+    public void testDirectoryBatches() {
+        var root = Path.of("/tmp/rsync/bla.net");
+        var targets = Stream.of("b/2.roa", "a/1.cer", "b/1.roa", "a/nested/x.roa", "b/3.mft", "a/0.crl")
+            .map(name -> new RsyncWriter.ObjectTarget(root.resolve(name), new ObjectContent.Heap(new byte[1]), FileTime.fromMillis(0)))
+            .toList();
+
+        var batches = RsyncWriter.directoryBatches(targets, 2).stream()
+            .map(batch -> batch.stream().map(t -> root.relativize(t.targetPath()).toString()).toList())
+            .toList();
+        assertThat(batches).containsExactly(
+            List.of("a/0.crl", "a/1.cer"),
+            List.of("a/nested/x.roa"),
+            List.of("b/1.roa", "b/2.roa"),
+            List.of("b/3.mft"));
+    }
+
+    @Test
+    public void testRunsAsManyWritersAsThePoolHasThreads() {
+        // More writers than the common pool has threads, all of them have to run at the same time
+        var writers = 4 * ForkJoinPool.getCommonPoolParallelism() + 4;
+        var pool = new ForkJoinPool();
+        try {
+            var rsyncWriter = new RsyncWriter(defaultConfig(), new WriteConcurrencyTuner(writers, writers, writers, false),
+                new RsyncWriterMetrics(new SimpleMeterRegistry()), new InPlaceIndex(), new PublicationListing(), pool);
+            var allRunning = new CountDownLatch(writers);
+            var completed = new AtomicInteger();
+            rsyncWriter.runOnWriters(IntStream.range(0, writers).boxed().toList(), i -> {
+                allRunning.countDown();
+                try {
+                    if (allRunning.await(10, TimeUnit.SECONDS)) {
+                        completed.incrementAndGet();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            assertThat(completed.get()).isEqualTo(writers);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testWriteChangeFeed(@TempDir Path tmpPath) throws Exception {
+        withRsyncWriter(tmpPath, config -> config.withChangeFeedEnabled(true), rsyncWriter -> {
+            var t0 = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+            var a = new RpkiObject(URI.create("rsync://bla.net/path1/a.cer"), someBytes(), t0);
+            var b = new RpkiObject(URI.create("rsync://bla.net/path1/b.mft"), someBytes(), t0);
+            var c = new RpkiObject(URI.create("rsync://bla.net/path1/c.crl"), someBytes(), t0);
+            var first = rsyncWriter.writeObjects(List.of(a, b), t0, Cancellation.none(), new ChangeFeed.Serials("session", null, 1));
+            assertThat(Files.readAllLines(RsyncWriter.changeFeedPath(first))).containsExactly(
+                "# rsyncit change feed", "session_id session", "serials ? 1", "previous -",
+                "+ bla.net/path1/a.cer", "+ bla.net/path1/b.mft");
+
+            var newB = new RpkiObject(URI.create("rsync://bla.net/path1/b.mft"), someBytes(), t0.plusSeconds(60));
+            var second = rsyncWriter.writeObjects(List.of(newB, c), t0.plusSeconds(60), Cancellation.none(), new ChangeFeed.Serials("session", 1, 3));
+            assertThat(Files.readAllLines(RsyncWriter.changeFeedPath(second))).containsExactly(
+                "# rsyncit change feed", "session_id session", "serials 1 3", "previous " + first.getFileName(),
+                "+ bla.net/path1/c.crl", "M bla.net/path1/b.mft", "- bla.net/path1/a.cer");
+        });
+    }
+
+    @Test
+    public void testWriteChangeFeedInPlace(@TempDir Path tmpPath) throws Exception {
+        withRsyncWriter(tmpPath, config -> config.withChangeFeedEnabled(true).withWriteMode(WriteMode.IN_PLACE), rsyncWriter -> {
+            var t0 = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+            var a = new RpkiObject(URI.create("rsync://bla.net/path1/a.cer"), someBytes(), t0);
+            var b = new RpkiObject(URI.create("rsync://bla.net/path1/b.mft"), someBytes(), t0);
+            rsyncWriter.writeObjects(List.of(a), t0, Cancellation.none(), new ChangeFeed.Serials("session", null, 1));
+            var root = rsyncWriter.writeObjects(List.of(b), t0.plusSeconds(60), Cancellation.none(), new ChangeFeed.Serials("session", 1, 2));
+            assertThat(Files.readAllLines(RsyncWriter.changeFeedPath(root))).containsExactly(
+                "# rsyncit change feed", "session_id session", "serials 1 2", "previous in-place",
+                "+ bla.net/path1/b.mft", "- bla.net/path1/a.cer");
+        });
+    }
+
+    @Test
+    public void testWriteInPlaceDetectsChangeWithSameSizeAndTime(@TempDir Path tmpPath) throws Exception {
+        withRsyncWriter(tmpPath, config -> config.withChangeFeedEnabled(true).withWriteMode(WriteMode.IN_PLACE), rsyncWriter -> {
+            var t0 = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+            var a = new RpkiObject(URI.create("rsync://bla.net/path1/a.cer"), someBytes(), t0);
+            var root = rsyncWriter.writeObjects(List.of(a), t0, Cancellation.none(), new ChangeFeed.Serials("session", null, 1));
+
+            // same size and modification time, other content
+            var newA = new RpkiObject(a.url(), someBytes(a.size()), t0);
+            rsyncWriter.writeObjects(List.of(newA), t0.plusSeconds(60), Cancellation.none(), new ChangeFeed.Serials("session", 1, 2));
+            checkFile(root.resolve("bla.net/path1/a.cer"), newA.bytes());
+            assertThat(Files.readAllLines(RsyncWriter.changeFeedPath(root))).containsExactly(
+                "# rsyncit change feed", "session_id session", "serials 1 2", "previous in-place",
+                "M bla.net/path1/a.cer");
+        });
+    }
+
+    @Test
+    public void testWriteInPlaceRemovesLeftoverStagingFiles(@TempDir Path tmpPath) throws Exception {
+        var staging = Files.createDirectories(tmpPath.resolve(RsyncWriter.IN_PLACE_STAGING_DIRECTORY));
+        var leftover = Files.createTempFile(staging, "object-", ".tmp");
+        withRsyncWriter(tmpPath, config -> config.withWriteMode(WriteMode.IN_PLACE), rsyncWriter -> {
+            var a = new RpkiObject(URI.create("rsync://bla.net/path1/a.cer"), someBytes(), Instant.now());
+            rsyncWriter.writeObjects(List.of(a), Instant.now());
+            assertThat(leftover).doesNotExist();
+            try (var files = Files.list(staging)) {
+                assertThat(files).isEmpty();
+            }
+        });
+    }
+
     @Test
     public void testWrite_set_time_and_permissions_on_empty_intermediate_paths(@TempDir Path tmpPath) throws Exception {
         withRsyncWriter(tmpPath, rsyncWriter -> {
@@ -119,6 +347,26 @@ class RsyncWriterTest {
         });
     }
 
+    @Test
+    public void testIgnoreBadHosts(@TempDir Path tmpPath) throws Exception {
+        withRsyncWriter(tmpPath, rsyncWriter -> {
+            var o1 = new RpkiObject(URI.create("rsync://bla.net/path1/a.cer"), someBytes(), Instant.now());
+            // published is the symlink to the previous write, this would overwrite an object in there
+            var o2 = new RpkiObject(URI.create("rsync://../published/bla.net/path1/a.cer"), someBytes(), Instant.now());
+            var o3 = new RpkiObject(URI.create("rsync://bla.net:873/path1/b.cer"), someBytes(), Instant.now());
+            var o4 = new RpkiObject(URI.create("rsync://user@bla.net/path1/c.cer"), someBytes(), Instant.now());
+            rsyncWriter.writeObjects(Arrays.asList(o1, o2, o3, o4), Instant.now());
+            var root = rsyncWriter.getConfig().rsyncPath();
+            checkFile(root.resolve("published/bla.net/path1/a.cer"), o1.bytes());
+            try (var hosts = Files.list(root.resolve("published"))) {
+                assertThat(hosts.map(host -> host.getFileName().toString())).containsExactly("bla.net");
+            }
+            try (var files = Files.list(root.resolve("published/bla.net/path1"))) {
+                assertThat(files.map(file -> file.getFileName().toString())).containsExactly("a.cer");
+            }
+        });
+    }
+
     static Path writeSomeObjects(RsyncWriter writer, Instant then) throws IOException {
         return writer.writeObjects(IntStream.range(0, 10).mapToObj(i ->
             new RpkiObject(URI.create("rsync://bla.net/path1/" + i + ".cer"), someBytes(), Instant.now())
@@ -236,7 +484,10 @@ class RsyncWriterTest {
     private static final Random random = new Random();
 
     private static byte[] someBytes() {
-        var length = random.nextInt(1000, 2000);
+        return someBytes(random.nextInt(1000, 2000));
+    }
+
+    private static byte[] someBytes(int length) {
         var bytes = new byte[length];
         random.nextBytes(bytes);
         return bytes;
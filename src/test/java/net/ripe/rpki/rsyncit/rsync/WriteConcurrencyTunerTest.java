@@ -0,0 +1,73 @@
+package net.ripe.rpki.rsyncit.rsync;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.function.IntToDoubleFunction;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class WriteConcurrencyTunerTest {
+
+    private static final long FILES = 100_000;
+
+    @Test
+    public void testConvergesToPeakThroughput() {
+        // throughput peaks at 24 writers and drops off on both sides
+        var tuner = runPhases(new WriteConcurrencyTuner(1, 64, 8, true), level -> 10_000 - 10.0 * (level - 24) * (level - 24), 30);
+        assertThat(tuner.best()).isBetween(23, 25);
+        assertThat(Math.abs(tuner.concurrency() - tuner.best())).isLessThanOrEqualTo(1);
+    }
+
+    @Test
+    public void testConvergesDownwardsForFastLocalDisk() {
+        // more writers only cause contention
+        var tuner = runPhases(new WriteConcurrencyTuner(1, 64, 16, true), level -> 50_000.0 / level, 30);
+        assertThat(tuner.best()).isLessThanOrEqualTo(2);
+    }
+
+    @Test
+    public void testStaysWithinBounds() {
+        // more writers are always better
+        var tuner = runPhases(new WriteConcurrencyTuner(2, 32, 16, true), level -> 1_000.0 * level, 30);
+        assertThat(tuner.best()).isEqualTo(32);
+        assertThat(tuner.concurrency()).isBetween(2, 32);
+    }
+
+    @Test
+    public void testFollowsThroughputDropAtAllLevels() {
+        var tuner = runPhases(new WriteConcurrencyTuner(1, 64, 8, true), level -> 10_000 - 10.0 * (level - 24) * (level - 24), 30);
+        assertThat(tuner.best()).isBetween(23, 25);
+
+        // the storage gets a lot slower at every level, and the peak moves to fewer writers
+        runPhases(tuner, level -> 1_000 - 1.0 * (level - 12) * (level - 12), 60);
+        assertThat(tuner.best()).isBetween(11, 13);
+        assertThat(Math.abs(tuner.concurrency() - tuner.best())).isLessThanOrEqualTo(1);
+    }
+
+    @Test
+    public void testDisabledOrSmallSamplesKeepLevel() {
+        var disabled = new WriteConcurrencyTuner(1, 64, 8, false);
+        disabled.record(8, FILES, 1_000_000_000L);
+        assertThat(disabled.concurrency()).isEqualTo(8);
+
+        var enabled = new WriteConcurrencyTuner(1, 64, 8, true);
+        enabled.record(8, WriteConcurrencyTuner.MINIMAL_SAMPLE_SIZE - 1, 1_000_000_000L);
+        assertThat(enabled.concurrency()).isEqualTo(8);
+    }
+
+    @Test
+    public void testRejectsInvalidBounds() {
+        assertThatThrownBy(() -> new WriteConcurrencyTuner(0, 8, 4, true)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new WriteConcurrencyTuner(1, 8, 9, true)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static WriteConcurrencyTuner runPhases(WriteConcurrencyTuner tuner, IntToDoubleFunction filesPerSecond, int phases) {
+        for (int i = 0; i < phases; i++) {
+            var level = tuner.concurrency();
+            var nanos = (long) (FILES * 1_000_000_000.0 / filesPerSecond.applyAsDouble(level));
+            tuner.record(level, FILES, nanos);
+        }
+        return tuner;
+    }
+}
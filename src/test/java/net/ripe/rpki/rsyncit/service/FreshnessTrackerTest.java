@@ -0,0 +1,55 @@
+package net.ripe.rpki.rsyncit.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FreshnessTrackerTest {
+    private final Instant t0 = Instant.parse("2024-01-01T10:00:00Z");
+
+    @Test
+    public void testLagOfPublishedSerials() {
+        var registry = new SimpleMeterRegistry();
+        var subject = new FreshnessTracker(registry);
+        assertThat(subject.hasPublished()).isFalse();
+        assertThat(subject.currentLag(t0)).isEqualTo(Duration.ZERO);
+
+        subject.seen("session", 10, t0);
+        // seen again: the first time counts
+        subject.seen("session", 10, t0.plusSeconds(30));
+        subject.seen("session", 11, t0.plusSeconds(60));
+        assertThat(subject.currentLag(t0.plusSeconds(90))).isEqualTo(Duration.ofSeconds(90));
+
+        // publishing 11 also publishes 10
+        subject.published("session", 11, t0.plusSeconds(120));
+        assertThat(subject.hasPublished()).isTrue();
+        assertThat(subject.currentLag(t0.plusSeconds(180))).isEqualTo(Duration.ZERO);
+        var lag = registry.get("rsyncit.freshness.lag").timer();
+        assertThat(lag.count()).isEqualTo(2);
+        assertThat(lag.max(TimeUnit.SECONDS)).isEqualTo(120);
+
+        // older serials are not pending
+        subject.seen("session", 11, t0.plusSeconds(200));
+        subject.seen("session", 9, t0.plusSeconds(200));
+        assertThat(subject.currentLag(t0.plusSeconds(300))).isEqualTo(Duration.ZERO);
+    }
+
+    @Test
+    public void testSessionReset() {
+        var subject = new FreshnessTracker(new SimpleMeterRegistry());
+        subject.seen("session", 10, t0);
+        subject.published("session", 10, t0.plusSeconds(10));
+
+        subject.seen("other", 1, t0.plusSeconds(100));
+        // the repository still has the serial of the old session: only the lag decides about readiness
+        assertThat(subject.hasPublished()).isTrue();
+        assertThat(subject.currentLag(t0.plusSeconds(160))).isEqualTo(Duration.ofSeconds(60));
+        subject.published("other", 1, t0.plusSeconds(200));
+        assertThat(subject.currentLag(t0.plusSeconds(300))).isEqualTo(Duration.ZERO);
+    }
+}
@@ -0,0 +1,113 @@
+package net.ripe.rpki.rsyncit.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SyncTriggerTest {
+
+    @Test
+    public void testCoalesceRequestsWhileSyncing() throws Exception {
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var syncs = new AtomicInteger();
+        var subject = new SyncTrigger(locked -> {
+            locked.run();
+            var n = syncs.incrementAndGet();
+            started.countDown();
+            release.await();
+            return new SyncResult("success", "session", n, Map.of(), Map.of(), false);
+        });
+
+        var running = subject.trigger();
+        assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+        // the first sync is running: everything after that shares one pending sync
+        var pending1 = subject.trigger();
+        var pending2 = subject.trigger();
+        assertThat(pending2).isSameAs(pending1).isNotSameAs(running);
+
+        release.countDown();
+        assertThat(running.get(10, TimeUnit.SECONDS).serial()).isEqualTo(1);
+        assertThat(pending1.get(10, TimeUnit.SECONDS).serial()).isEqualTo(2);
+        assertThat(syncs.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void testCoalesceRequestsWhileWaitingForTheLock() throws Exception {
+        // A scheduled sync holds the lock, the requested sync waits for it
+        var syncLock = new ReentrantLock();
+        var syncs = new AtomicInteger();
+        var subject = new SyncTrigger(started -> {
+            syncLock.lockInterruptibly();
+            try {
+                started.run();
+                var n = syncs.incrementAndGet();
+                return new SyncResult("success", "session", n, Map.of(), Map.of(), false);
+            } finally {
+                syncLock.unlock();
+            }
+        });
+
+        syncLock.lock();
+        CompletableFuture<SyncResult> first;
+        try {
+            first = subject.trigger();
+            var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (!syncLock.hasQueuedThreads() && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertThat(syncLock.hasQueuedThreads()).isTrue();
+            // the requested sync did not start yet, so it is shared
+            assertThat(subject.trigger()).isSameAs(first);
+            assertThat(subject.trigger()).isSameAs(first);
+        } finally {
+            syncLock.unlock();
+        }
+
+        assertThat(first.get(10, TimeUnit.SECONDS).serial()).isEqualTo(1);
+        assertThat(syncs.get()).isEqualTo(1);
+        // once it started, a new request gets a new sync
+        assertThat(subject.trigger().get(10, TimeUnit.SECONDS).serial()).isEqualTo(2);
+    }
+
+    @Test
+    public void testRequestAfterFailedSync() throws Exception {
+        var syncs = new AtomicInteger();
+        var subject = new SyncTrigger(started -> {
+            if (syncs.incrementAndGet() == 1) {
+                throw new InterruptedException("before the lock was acquired");
+            }
+            started.run();
+            return new SyncResult("success", "session", syncs.get(), Map.of(), Map.of(), false);
+        });
+
+        assertThatThrownBy(() -> subject.trigger().get(10, TimeUnit.SECONDS)).hasCauseInstanceOf(InterruptedException.class);
+        assertThat(subject.trigger().get(10, TimeUnit.SECONDS).serial()).isEqualTo(2);
+    }
+
+    @Test
+    public void testWaitIsCapped() {
+        var requestTimeout = Duration.ofSeconds(180);
+        assertThat(SyncTriggerController.waitSeconds(300, requestTimeout)).isEqualTo(300);
+        assertThat(SyncTriggerController.waitSeconds(360, requestTimeout)).isEqualTo(360);
+        assertThat(SyncTriggerController.waitSeconds(Long.MAX_VALUE, requestTimeout)).isEqualTo(360);
+        assertThat(SyncTriggerController.waitSeconds(-1, requestTimeout)).isZero();
+    }
+
+    @Test
+    public void testAuthorization() {
+        assertThat(SyncTriggerController.isAuthorized("Bearer secret", "secret")).isTrue();
+        assertThat(SyncTriggerController.isAuthorized("Bearer other", "secret")).isFalse();
+        assertThat(SyncTriggerController.isAuthorized("secret", "secret")).isFalse();
+        assertThat(SyncTriggerController.isAuthorized(null, "secret")).isFalse();
+    }
+}
@@ -0,0 +1,91 @@
+package net.ripe.rpki.rsyncit.util;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ExecutionPoolsTest {
+
+    @Test
+    public void testGaugesTrackLoadedPool() throws Exception {
+        var registry = new SimpleMeterRegistry();
+        var release = new CountDownLatch(1);
+        try (var pools = new ExecutionPools(2, 1, registry)) {
+            // 2 tasks block both threads of the cpu pool, 3 have to wait for them
+            for (int i = 0; i < 5; i++) {
+                pools.cpu().execute(() -> {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+
+            // the counts of the pool are estimates while its workers are taking tasks, wait until they settle
+            awaitValue(() -> gauge(registry, "rsyncit.executor.active", "cpu"), 2);
+            awaitValue(() -> gauge(registry, "rsyncit.executor.queued", "cpu"), 3);
+            assertThat(gauge(registry, "rsyncit.executor.utilization", "cpu")).isEqualTo(1.0);
+            // the io pool is idle
+            assertThat(gauge(registry, "rsyncit.executor.active", "io")).isZero();
+            assertThat(gauge(registry, "rsyncit.executor.utilization", "io")).isZero();
+
+            release.countDown();
+            assertThat(pools.cpu().awaitQuiescence(10, TimeUnit.SECONDS)).isTrue();
+            awaitValue(() -> gauge(registry, "rsyncit.executor.active", "cpu"), 0);
+            awaitValue(() -> gauge(registry, "rsyncit.executor.queued", "cpu"), 0);
+            assertThat(gauge(registry, "rsyncit.executor.utilization", "cpu")).isZero();
+        }
+    }
+
+    @Test
+    public void testNamesThreadsAfterPool() throws Exception {
+        try (var pools = new ExecutionPools(1, 1, 2, new SimpleMeterRegistry())) {
+            assertThat(pools.cpu().submit(() -> Thread.currentThread().getName()).get()).startsWith("rsyncit-cpu-");
+            assertThat(pools.io().submit(() -> Thread.currentThread().getName()).get()).startsWith("rsyncit-io-");
+            assertThat(pools.io(1).submit(() -> Thread.currentThread().getName()).get()).startsWith("rsyncit-io-1-");
+        }
+    }
+
+    @Test
+    public void testCloseShutsDownAllPools() throws Exception {
+        var release = new CountDownLatch(1);
+        var pools = new ExecutionPools(1, 1, 2, new SimpleMeterRegistry());
+        var running = pools.io(1).submit(() -> {
+            release.await();
+            return null;
+        });
+
+        pools.close();
+
+        assertThat(pools.cpu().isShutdown()).isTrue();
+        assertThat(pools.io().isShutdown()).isTrue();
+        assertThat(pools.io(1).isShutdown()).isTrue();
+        // running tasks are cancelled, the threads stop
+        assertThat(pools.io(1).awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(running.isDone()).isTrue();
+    }
+
+    private static double gauge(MeterRegistry registry, String name, String pool) {
+        return registry.get(name).tag("pool", pool).gauge().value();
+    }
+
+    /**
+     * The worker threads pick up the tasks asynchronously, poll until the gauge has the expected value.
+     */
+    private static void awaitValue(DoubleSupplier gauge, double expected) throws InterruptedException {
+        var deadline = Instant.now().plus(Duration.ofSeconds(10));
+        while (gauge.getAsDouble() != expected && Instant.now().isBefore(deadline)) {
+            Thread.sleep(10);
+        }
+        assertThat(gauge.getAsDouble()).isEqualTo(expected);
+    }
+}
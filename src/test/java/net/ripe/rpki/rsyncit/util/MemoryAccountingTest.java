@@ -0,0 +1,74 @@
+package net.ripe.rpki.rsyncit.util;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MemoryAccountingTest {
+    static final int ALLOCATION = 16 * 1024 * 1024;
+
+    // Keeps the allocations reachable so that they are not optimized away
+    static volatile byte[] sink;
+
+    @Test
+    public void testCountsParticipatingThreads() throws Exception {
+        var subject = new MemoryAccounting(name -> name.startsWith("participating-"), new SimpleMeterRegistry());
+
+        var measurement = subject.start();
+        sink = new byte[ALLOCATION];
+        var usage = allocatingOn("participating-1", measurement::stop);
+        assertThat(usage.allocatedBytes()).isBetween(2L * ALLOCATION, 3L * ALLOCATION);
+        assertThat(usage.peakHeapBytes()).isPositive();
+
+        measurement = subject.start();
+        assertThat(allocatingOn("other-1", measurement::stop).allocatedBytes()).isLessThan(ALLOCATION);
+    }
+
+    @Test
+    public void testTotalIncludesPeaksOfPhases() {
+        var subject = new MemoryAccounting(name -> false, new SimpleMeterRegistry());
+        var total = subject.start();
+        var phase = new MemoryAccounting.Usage(0, Long.MAX_VALUE, Long.MAX_VALUE);
+        assertThat(total.stop(List.of(phase)).peakHeapBytes()).isEqualTo(Long.MAX_VALUE);
+    }
+
+    @Test
+    public void testRecord() {
+        var registry = new SimpleMeterRegistry();
+        var subject = new MemoryAccounting(name -> false, registry);
+        subject.record(Map.of("fetch", new MemoryAccounting.Usage(100, 200, 50)));
+        subject.record(Map.of("fetch", new MemoryAccounting.Usage(300, 400, 60)));
+
+        assertThat(registry.get("rsyncit.sync.allocated").tag("phase", "fetch").summary().totalAmount()).isEqualTo(400);
+        assertThat(registry.get("rsyncit.sync.heap.peak").tag("phase", "fetch").tag("area", "heap").gauge().value()).isEqualTo(400);
+        assertThat(registry.get("rsyncit.sync.heap.peak").tag("phase", "fetch").tag("area", "old").gauge().value()).isEqualTo(60);
+    }
+
+    /**
+     * @return result of `stop`, called after a thread allocated but before it ends: ended threads are not counted
+     */
+    private static MemoryAccounting.Usage allocatingOn(String threadName, Supplier<MemoryAccounting.Usage> stop) throws InterruptedException {
+        var allocated = new CountDownLatch(1);
+        var stopped = new CountDownLatch(1);
+        var thread = Thread.ofPlatform().name(threadName).start(() -> {
+            sink = new byte[ALLOCATION];
+            allocated.countDown();
+            try {
+                stopped.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        allocated.await();
+        var usage = stop.get();
+        stopped.countDown();
+        thread.join();
+        return usage;
+    }
+}